@@ -0,0 +1,157 @@
+package at.roteskreuz.covidapp.benchmark;
+
+import at.roteskreuz.covidapp.domain.Exposure;
+import at.roteskreuz.covidapp.domain.SignatureInfo;
+import at.roteskreuz.covidapp.properties.ExportProperties;
+import at.roteskreuz.covidapp.service.ExportMarshaller;
+import at.roteskreuz.covidapp.sign.Signer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the marshalling of one export batch.
+ * One operation is one batch, the keys counter reports the exported keys per second
+ * and the gc profiler (gc.alloc.rate.norm) the bytes allocated per batch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ExportMarshallerBenchmark {
+
+	private static final String REGION = "AT";
+	private static final String[] DIAGNOSIS_TYPES = {"red-warning", "yellow-warning"};
+
+	@Param({"1000", "10000", "100000"})
+	public int keys;
+
+	@Param({"false", "true"})
+	public boolean signed;
+
+	@Param({"-1", "1", "9"})
+	public int zipLevel;
+
+	private ExportMarshaller marshaller;
+	private List<Exposure> exposures;
+	private List<SignatureInfo> signatureInfos;
+	private byte[] contents;
+	private final LocalDateTime startTimestamp = LocalDateTime.of(2020, 6, 1, 0, 0);
+	private final LocalDateTime endTimestamp = startTimestamp.plusDays(1);
+
+	/**
+	 * Counts the exported keys
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class KeyCounter {
+
+		public long exportedKeys;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			exportedKeys = 0;
+		}
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		ExportProperties exportProperties = new ExportProperties();
+		exportProperties.setZipLevel(zipLevel);
+		marshaller = new ExportMarshaller(signed ? ecdsaSigner() : data -> new byte[0], exportProperties, new SimpleMeterRegistry());
+
+		Random random = new Random(42);
+		int firstInterval = (int) (startTimestamp.toEpochSecond(ZoneOffset.UTC) / 600);
+		exposures = new ArrayList<>(keys);
+		for (int i = 0; i < keys; i++) {
+			byte[] key = new byte[16];
+			random.nextBytes(key);
+			exposures.add(new Exposure(Base64.getEncoder().encodeToString(key), null, REGION, firstInterval + random.nextInt(144), 144, DIAGNOSIS_TYPES[random.nextInt(DIAGNOSIS_TYPES.length)]));
+		}
+		SignatureInfo signatureInfo = new SignatureInfo();
+		signatureInfo.setSigningKeyID("232");
+		signatureInfo.setSigningKeyVersion("v1");
+		signatureInfos = Collections.singletonList(signatureInfo);
+		contents = marshaller.marshalContents(REGION, startTimestamp, endTimestamp, exposures, 1, 1, signatureInfos);
+		//marshalContents sorts the list in place, shuffle it again as the database order is not the key order
+		Collections.shuffle(exposures, random);
+	}
+
+	@Benchmark
+	public byte[] marshalContents(KeyCounter counter) throws IOException {
+		List<Exposure> batch = new ArrayList<>(exposures);
+		counter.exportedKeys += batch.size();
+		return marshaller.marshalContents(REGION, startTimestamp, endTimestamp, batch, 1, 1, signatureInfos);
+	}
+
+	@Benchmark
+	public byte[] marshalSignature(KeyCounter counter) throws IOException, GeneralSecurityException {
+		counter.exportedKeys += keys;
+		return marshaller.marshalSignature(contents, 1, 1, signatureInfos);
+	}
+
+	@Benchmark
+	public long marshalExportFile(KeyCounter counter) throws IOException, GeneralSecurityException {
+		List<Exposure> batch = new ArrayList<>(exposures);
+		counter.exportedKeys += batch.size();
+		CountingOutputStream output = new CountingOutputStream();
+		marshaller.marshalExportFile(REGION, startTimestamp, endTimestamp, batch, 1, 1, signatureInfos).writeTo(output);
+		return output.count;
+	}
+
+	private static Signer ecdsaSigner() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		Signature signature = Signature.getInstance("SHA256withECDSA");
+		signature.initSign(generator.generateKeyPair().getPrivate());
+		return data -> {
+			signature.update(data);
+			return signature.sign();
+		};
+	}
+
+	/**
+	 * Discards the written bytes, only counts them
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
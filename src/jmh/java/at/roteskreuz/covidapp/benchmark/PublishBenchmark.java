@@ -0,0 +1,186 @@
+package at.roteskreuz.covidapp.benchmark;
+
+import at.roteskreuz.covidapp.config.ApplicationConfig;
+import at.roteskreuz.covidapp.domain.AuthorizedApp;
+import at.roteskreuz.covidapp.exception.PublishQueueFullException;
+import at.roteskreuz.covidapp.model.ApiResponse;
+import at.roteskreuz.covidapp.model.ExposureKey;
+import at.roteskreuz.covidapp.model.Publish;
+import at.roteskreuz.covidapp.model.VerificationPayload;
+import at.roteskreuz.covidapp.properties.PublishProperties;
+import at.roteskreuz.covidapp.repository.AuthorizedAppRepository;
+import at.roteskreuz.covidapp.repository.ExposureRepository;
+import at.roteskreuz.covidapp.service.AuthorizedAppService;
+import at.roteskreuz.covidapp.service.ExposureService;
+import at.roteskreuz.covidapp.service.PublishQueueService;
+import at.roteskreuz.covidapp.service.PublishService;
+import at.roteskreuz.covidapp.validation.ExposureKeyValidator;
+import at.roteskreuz.covidapp.validation.PublishValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Measures the CPU cost of one publish request without the HTTP and database layers:
+ * the JSON body is deserialized, validated and turned into exposures saved into a repository stub.
+ * One operation is one request, the gc profiler (gc.alloc.rate) reports the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class PublishBenchmark {
+
+	private static final String APP_PACKAGE_NAME = "at.roteskreuz.stopcorona";
+
+	@Param({"1", "14"})
+	public int keys;
+
+	private ObjectMapper objectMapper;
+	private ExposureKeyValidator exposureKeyValidator;
+	private PublishValidator publishValidator;
+	private PublishService publishService;
+	private byte[] body;
+	private Publish publish;
+
+	@Setup
+	public void setUp() throws Exception {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+		PublishProperties publishProperties = new PublishProperties();
+		publishProperties.setMaxKeysOnPublish(15);
+		publishProperties.setMaxIntervalAgeOnPublish(Duration.ofDays(15));
+		exposureKeyValidator = new ExposureKeyValidator(publishProperties);
+
+		AuthorizedApp authorizedApp = new AuthorizedApp();
+		authorizedApp.setAppPackageName(APP_PACKAGE_NAME);
+		authorizedApp.setAllowedRegions(Collections.singletonList("AT"));
+		AuthorizedAppRepository authorizedAppRepository = stub(AuthorizedAppRepository.class, Collections.singletonList(authorizedApp));
+		publishValidator = new PublishValidator(new AuthorizedAppService(authorizedAppRepository));
+		ReflectionTestUtils.setField(publishValidator, "maxExposureKeys", publishProperties.getMaxKeysOnPublish());
+
+		//the stub finds no existing exposures, every key is inserted
+		ExposureService exposureService = new ExposureService(stub(ExposureRepository.class, Collections.emptyList()), null);
+		PublishQueueService publishQueueService = new PublishQueueService(publishProperties, objectMapper, new SimpleMeterRegistry());
+		publishService = new PublishService(exposureService, publishQueueService, publishProperties, null, new SimpleMeterRegistry());
+
+		body = objectMapper.writeValueAsBytes(createPublish(keys));
+		publish = objectMapper.readValue(body, Publish.class);
+	}
+
+	@Benchmark
+	public Publish deserialize() throws IOException {
+		return objectMapper.readValue(body, Publish.class);
+	}
+
+	@Benchmark
+	public void validateExposureKeys(Blackhole blackhole) {
+		for (ExposureKey key : publish.getKeys()) {
+			blackhole.consume(exposureKeyValidator.isValid(key, null));
+		}
+	}
+
+	@Benchmark
+	public boolean validatePublish() {
+		return publishValidator.isValid(publish, null);
+	}
+
+	@Benchmark
+	public ApiResponse publish() throws PublishQueueFullException {
+		return publishService.publish(publish);
+	}
+
+	@Benchmark
+	public ApiResponse fullRequest() throws IOException, PublishQueueFullException {
+		Publish request = objectMapper.readValue(body, Publish.class);
+		boolean valid = publishValidator.isValid(request, null);
+		for (ExposureKey key : request.getKeys()) {
+			valid &= exposureKeyValidator.isValid(key, null);
+		}
+		if (!valid) {
+			throw new IllegalStateException("The benchmark request is invalid");
+		}
+		return publishService.publish(request);
+	}
+
+	/**
+	 * Creates a valid publish request with keys of consecutive days
+	 */
+	private static Publish createPublish(int count) {
+		Random random = new Random(42);
+		long firstDay = LocalDate.now().minusDays(count).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+		List<ExposureKey> exposureKeys = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int intervalNumber = (int) ((firstDay + i * Duration.ofDays(1).getSeconds()) / ApplicationConfig.INTERVAL_LENGTH.getSeconds());
+			exposureKeys.add(new ExposureKey(Base64.getEncoder().encodeToString(randomString(random, ApplicationConfig.KEY_LENGTH).getBytes()), intervalNumber, ApplicationConfig.MAX_INTERVAL_COUNT, randomString(random, 8)));
+		}
+		//the client order is not the interval order
+		Collections.shuffle(exposureKeys, random);
+		Publish publish = new Publish();
+		publish.setKeys(exposureKeys);
+		publish.setRegions(Collections.singletonList("AT"));
+		publish.setAppPackageName(APP_PACKAGE_NAME);
+		publish.setPlatform("android");
+		publish.setDiagnosisType("red-warning");
+		publish.setVerificationAuthorityName("RedCross");
+		VerificationPayload verificationPayload = new VerificationPayload();
+		verificationPayload.setUuid(UUID.randomUUID().toString());
+		verificationPayload.setAuthorization("123456");
+		publish.setVerificationPayload(verificationPayload);
+		return publish;
+	}
+
+	private static String randomString(Random random, int length) {
+		StringBuilder buffer = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			buffer.append((char) ('a' + random.nextInt(26)));
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Creates a repository stub: the find methods return the given entities, the save methods return their argument
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> repositoryType, List<?> entities) {
+		return (T) Proxy.newProxyInstance(repositoryType.getClassLoader(), new Class<?>[]{repositoryType}, (proxy, method, args) -> {
+			if (method.getDeclaringClass() == Object.class) {
+				return method.invoke(entities, args);
+			}
+			if (method.getName().startsWith("find")) {
+				return entities;
+			}
+			if (method.getName().startsWith("save")) {
+				return args[0];
+			}
+			throw new UnsupportedOperationException(method.getName());
+		});
+	}
+}
@@ -14,9 +14,11 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 @SpringBootApplication
 @EnableConfigurationProperties({
 	ApiProperties.class,
+	AzureStorageProperties.class,
 	ExportProperties.class,
 	PublishProperties.class,
-	SignatureProperties.class
+	SignatureProperties.class,
+	TanProperties.class
 })
 @Slf4j
 public class CovidappApplication  {
@@ -1,11 +1,13 @@
 package at.roteskreuz.covidapp.api;
 
 import at.roteskreuz.covidapp.domain.ClientConfiguration;
+import at.roteskreuz.covidapp.model.EncodedClientConfiguration;
 import at.roteskreuz.covidapp.service.ClientConfigurationService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.Authorization;
-import java.time.ZoneOffset;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -14,11 +16,15 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 import org.springframework.web.server.ResponseStatusException;
 
 
 /**
  * Controller for exposing client configuration via {@code /api/v?/configuration}.
+ * The configuration is served pre-encoded with a precomputed ETag,
+ * conditional requests are answered without a body.
  *
  * @author Zoltán Puskai
  */
@@ -28,31 +34,63 @@ import org.springframework.web.server.ResponseStatusException;
 @Api(tags = "Configuration", description = "Endpoint that returns the configuration for clients.")
 public class ClientConfigurationController {
 
+	private static final String GZIP = "gzip";
+
 	private final ClientConfigurationService service;
 
 	
 	/**
 	 * Returns the current client configuration ({@link ClientConfiguration})
 	 *
+	 * @param request HTTP request
+	 * @param response HTTP response
+	 * @param webRequest web request used to check the conditional headers
 	 * @return client configuration
 	 */
 	@GetMapping(value = "/configuration", produces = MediaType.APPLICATION_JSON_VALUE)
 	@ApiOperation(value = "Returns the current configuration", authorizations = {
 		@Authorization(value = "AuthorizationKey")})
-	public ResponseEntity<String> configuration() {
-		ClientConfiguration configuration = service.getConfiuration();
+	public ResponseEntity<byte[]> configuration(HttpServletRequest request, HttpServletResponse response, WebRequest webRequest) {
+		EncodedClientConfiguration configuration = service.getEncodedConfiguration();
 		if (configuration == null) {
 			throw new ResponseStatusException(
 			  HttpStatus.NOT_FOUND, "Client configuration not found"
 			);
 		}
-		long lastModifiedDate = configuration.getDateCreated().toInstant(ZoneOffset.UTC).toEpochMilli();
+		//the ETag is precomputed, the filter does not need to buffer and hash the body
+		ShallowEtagHeaderFilter.disableContentCaching(request);
+		//set before the conditional check so that 304 responses carry it too
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		boolean gzip = configuration.getGzipData() != null && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+		String etag = gzip ? configuration.getGzipEtag() : configuration.getEtag();
+		//sets the ETag and Last-Modified headers, and the status 304 if the client has the current version
+		if (webRequest.checkNotModified(etag, configuration.getLastModified())) {
+			return null;
+		}
 
-		HttpHeaders responseHeaders = new HttpHeaders();
-		responseHeaders.setDate("Last-Modified", lastModifiedDate);
+		if (gzip) {
+			HttpHeaders responseHeaders = new HttpHeaders();
+			responseHeaders.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+			return ResponseEntity.ok()
+					.headers(responseHeaders)
+					.body(configuration.getGzipData());
+		}
 		return ResponseEntity.ok()
-				.headers(responseHeaders)
 				.body(configuration.getData());
 	}
 
+	private boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String encoding : acceptEncoding.split(",")) {
+			String[] parts = encoding.trim().split(";");
+			if (GZIP.equalsIgnoreCase(parts[0].trim()) || "*".equals(parts[0].trim())) {
+				//q=0 means not acceptable
+				return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
 }
@@ -2,6 +2,8 @@ package at.roteskreuz.covidapp.api;
 
 
 import at.roteskreuz.covidapp.exception.InvalidTanException;
+import at.roteskreuz.covidapp.exception.PublishQueueFullException;
+import at.roteskreuz.covidapp.exception.TanServiceUnavailableException;
 import at.roteskreuz.covidapp.model.ApiResponse;
 import at.roteskreuz.covidapp.model.Publish;
 import at.roteskreuz.covidapp.properties.PublishProperties;
@@ -12,6 +14,8 @@ import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.Authorization;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import javax.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
@@ -39,23 +43,63 @@ public class PublishController {
 
 	
 	/**
-	 * Stores exposures published by the clients
+	 * Stores exposures published by the clients.
+	 * In async mode the TAN is validated with a non-blocking client and the exposures are stored
+	 * on the publish executor, the request thread is released in the meantime.
+	 * Only the async mode returns a CompletableFuture, Spring MVC picks the return value handler by the returned type,
+	 * so the blocking mode is not dispatched asynchronously.
 	 * @param publish request containing exposures and validation data
-	 * @return Api response
+	 * @return Api response, a ResponseEntity in blocking mode or a CompletableFuture of it in async mode
 	 * @throws InvalidTanException if the Tan validation fails
+	 * @throws PublishQueueFullException if the write-behind queue is full
+	 * @throws TanServiceUnavailableException if the TAN service is not called because it is degraded
 	 */
 	@PostMapping(value = "/publish", produces = MediaType.APPLICATION_JSON_VALUE)
-	@ApiOperation(value = "Publishes infection information.", authorizations = {
+	@ApiOperation(value = "Publishes infection information.", response = ApiResponse.class, authorizations = {
 		@Authorization(value = "AuthorizationKey")})
 	@ApiImplicitParams({
 	   @ApiImplicitParam(name = "X-AppId", value = "Application id", required = true, dataType = "string", paramType = "header")		
 	 })
-	public ResponseEntity<ApiResponse> publish(@Valid @RequestBody Publish publish) throws InvalidTanException {
-		if (!publishProperties.isBypassTanValidation() && !tanService.validate(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType())) {
-			throw new InvalidTanException(String.format("TAN is invalid. tan: %s, uuid:%s, type: %s", publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType()));
+	public Object publish(@Valid @RequestBody Publish publish) throws InvalidTanException, PublishQueueFullException, TanServiceUnavailableException {
+		if (publishProperties.isAsync()) {
+			return publishAsync(publish);
+		}
+		boolean valid;
+		try {
+			valid = publishProperties.isBypassTanValidation() || tanService.validate(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType());
+		} catch (TanServiceUnavailableException e) {
+			publishService.recordRejection("tan_unavailable");
+			throw e;
+		}
+		if (!valid) {
+			throw invalidTan(publish);
 		}
 		ApiResponse response = publishService.publish(publish);
 		return ResponseEntity.status(response.getStatus()).body(response);
 	}
 
+	private CompletableFuture<ResponseEntity<ApiResponse>> publishAsync(Publish publish) {
+		CompletableFuture<Boolean> validation = publishProperties.isBypassTanValidation()
+				? CompletableFuture.completedFuture(true)
+				: tanService.validateAsync(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType());
+		return validation
+				.whenComplete((valid, e) -> {
+					if (e != null) {
+						publishService.recordRejection("tan_unavailable");
+					}
+				})
+				.thenCompose(valid -> {
+					if (!valid) {
+						throw new CompletionException(invalidTan(publish));
+					}
+					return publishService.publishAsync(publish);
+				})
+				.thenApply(response -> ResponseEntity.status(response.getStatus()).body(response));
+	}
+
+	private InvalidTanException invalidTan(Publish publish) {
+		publishService.recordRejection("invalid_tan");
+		return new InvalidTanException(String.format("TAN is invalid. tan: %s, uuid:%s, type: %s", publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType()));
+	}
+
 }
@@ -0,0 +1,127 @@
+package at.roteskreuz.covidapp.blobstore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+/**
+ * Base class for blobstores doing blocking I/O.
+ * The asynchronous and batch operations run the single object operations on an executor.
+ */
+public abstract class AbstractBlobstore implements Blobstore {
+
+	private final Executor executor;
+
+	/**
+	 * Creates the blobstore
+	 * @param executor executor running the asynchronous operations
+	 */
+	protected AbstractBlobstore(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates a file asynchronously
+	 * @param bucket name of the bucket
+	 * @param objectName name of the object to be stored
+	 * @param contents data to be stored
+	 * @return future completed when the object is stored
+	 */
+	@Override
+	public CompletableFuture<Void> createObjectAsync(String bucket, String objectName, byte[] contents) {
+		return supplyAsync(() -> {
+			createObject(bucket, objectName, contents);
+			return null;
+		});
+	}
+
+	/**
+	 * Creates a file asynchronously, the contents are written straight into the blobstore
+	 * @param bucket name of the bucket
+	 * @param objectName name of the object to be stored
+	 * @param writer callback writing the contents
+	 * @return future completed when the object is stored
+	 */
+	@Override
+	public CompletableFuture<Void> createObjectAsync(String bucket, String objectName, BlobWriter writer) {
+		return supplyAsync(() -> {
+			createObject(bucket, objectName, writer);
+			return null;
+		});
+	}
+
+	/**
+	 * Deletes a file asynchronously
+	 * @param bucket name of the bucket
+	 * @param objectName name of the object to be deleted
+	 * @return future completed with the result of the deletion
+	 */
+	@Override
+	public CompletableFuture<Boolean> deleteObjectAsync(String bucket, String objectName) {
+		return supplyAsync(() -> deleteObject(bucket, objectName));
+	}
+
+	/**
+	 * Creates files concurrently
+	 * @param bucket name of the bucket
+	 * @param objects data to be stored by object name
+	 * @throws Exception 
+	 */
+	@Override
+	public void createObjects(String bucket, Map<String, byte[]> objects) throws Exception {
+		join(objects.entrySet().stream()
+				.map(o -> createObjectAsync(bucket, o.getKey(), o.getValue()))
+				.collect(Collectors.toList()));
+	}
+
+	/**
+	 * Deletes files concurrently
+	 * @param bucket name of the bucket
+	 * @param objectNames names of the objects to be deleted
+	 * @return number of deleted objects
+	 * @throws Exception 
+	 */
+	@Override
+	public int deleteObjects(String bucket, Collection<String> objectNames) throws Exception {
+		List<CompletableFuture<Boolean>> results = objectNames.stream()
+				.map(objectName -> deleteObjectAsync(bucket, objectName))
+				.collect(Collectors.toList());
+		join(results);
+		return (int) results.stream().filter(CompletableFuture::join).count();
+	}
+
+	/**
+	 * Runs a blocking operation on the executor of the blobstore
+	 * @param <T> type of the result
+	 * @param operation operation to be executed
+	 * @return future of the result
+	 */
+	protected <T> CompletableFuture<T> supplyAsync(Callable<T> operation) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return operation.call();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Waits for every future and throws the first failure
+	 * @param futures futures to wait for
+	 * @throws Exception 
+	 */
+	protected static void join(List<? extends CompletableFuture<?>> futures) throws Exception {
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+}
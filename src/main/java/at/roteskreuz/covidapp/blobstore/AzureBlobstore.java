@@ -1,23 +1,42 @@
 package at.roteskreuz.covidapp.blobstore;
 
+import at.roteskreuz.covidapp.properties.AzureStorageProperties;
 import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.CloudBlobClient;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import com.microsoft.azure.storage.blob.CloudBlockBlob;
 import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Blobstore implements the Blob interface and provides the ability
- * write files to Azure Blobstore
+ * write files to Azure Blobstore.
+ * The storage account, the client and the container references are created once and shared across threads.
+ * Batch operations upload and delete the blobs concurrently.
  *
  * @author Zoltán Puskai
  */
 @Slf4j
-public class AzureBlobstore implements Blobstore {
+public class AzureBlobstore extends AbstractBlobstore {
 
-	@Value("${azure.storage.connection-string:}")
-	private String storageConnectionString;	
+	private final AzureStorageProperties storageProperties;
+	private volatile CloudBlobClient cloudBlobClient;
+	private final Map<String, CloudBlobContainer> containers = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the blobstore
+	 * @param executor executor running the asynchronous and batch operations
+	 * @param storageProperties connection string and upload settings of the storage account
+	 */
+	public AzureBlobstore(Executor executor, AzureStorageProperties storageProperties) {
+		super(executor);
+		this.storageProperties = storageProperties;
+	}
 	
 	/**
 	 * Creates a file in the blobstore
@@ -29,12 +48,30 @@ public class AzureBlobstore implements Blobstore {
 	@Override
 	public void createObject(String container, String objectName, byte[] contents) throws Exception {
 		log.debug(String.format("Azure blobstore will create file for container: %s and objectName: %s",container, objectName));
-		CloudStorageAccount cloudStorageAccount = CloudStorageAccount.parse(storageConnectionString);
-		CloudBlobContainer cloudContainer = cloudStorageAccount.createCloudBlobClient().getContainerReference(container);
-		CloudBlockBlob blockBlobReference = cloudContainer.getBlockBlobReference(objectName);
+		CloudBlockBlob blockBlobReference = getContainer(container).getBlockBlobReference(objectName);
+		blockBlobReference.setStreamWriteSizeInBytes(storageProperties.getBlockSizeBytes());
 		blockBlobReference.upload(new ByteArrayInputStream(contents) , contents.length);
 	}
 
+	/**
+	 * Creates a file in the blobstore, the contents are uploaded while they are written
+	 * @param container name of the container 
+	 * @param objectName name of the object to be stored
+	 * @param writer callback writing the contents
+	 * @throws Exception 
+	 */
+	@Override
+	public void createObject(String container, String objectName, BlobWriter writer) throws Exception {
+		log.debug(String.format("Azure blobstore will create file for container: %s and objectName: %s",container, objectName));
+		CloudBlockBlob blockBlobReference = getContainer(container).getBlockBlobReference(objectName);
+		blockBlobReference.setStreamWriteSizeInBytes(storageProperties.getBlockSizeBytes());
+		OutputStream output = blockBlobReference.openOutputStream();
+		//closing the stream commits the block list, after a failed write it is not closed
+		//so that no truncated blob is created, the uncommitted blocks are discarded by the storage
+		writer.writeTo(output);
+		output.close();
+	}
+
 	/**
 	 * Deletes a file from the blobstore
 	 * @param container name of the container 
@@ -45,9 +82,7 @@ public class AzureBlobstore implements Blobstore {
 	@Override
 	public boolean deleteObject(String container, String objectName) throws Exception  {
 		log.debug(String.format("Azure blobstore will delete file for container: %s and objectName: %s",container, objectName));
-		CloudStorageAccount cloudStorageAccount = CloudStorageAccount.parse(storageConnectionString);
-		CloudBlobContainer cloudContainer = cloudStorageAccount.createCloudBlobClient().getContainerReference(container);
-		CloudBlockBlob blockBlobReference = cloudContainer.getBlockBlobReference(objectName);
+		CloudBlockBlob blockBlobReference = getContainer(container).getBlockBlobReference(objectName);
 		return blockBlobReference.deleteIfExists();
 	}
 	/**
@@ -60,10 +95,39 @@ public class AzureBlobstore implements Blobstore {
 	@Override
 	public void copy(String container, String sourcePath, String destinationPath) throws Exception {
 		log.debug(String.format("Azure blobstore will copy the file : %s to: %s in the container: %s", sourcePath, destinationPath, container));	
-		CloudStorageAccount cloudStorageAccount = CloudStorageAccount.parse(storageConnectionString);
-		CloudBlobContainer cloudContainer = cloudStorageAccount.createCloudBlobClient().getContainerReference(container);
+		CloudBlobContainer cloudContainer = getContainer(container);
 		CloudBlockBlob source = cloudContainer.getBlockBlobReference(sourcePath);		
 		CloudBlockBlob destination = cloudContainer.getBlockBlobReference(destinationPath);
 		destination.startCopy(source);		
 	}
+
+	private CloudBlobContainer getContainer(String container) throws Exception {
+		CloudBlobContainer cloudContainer = containers.get(container);
+		if (cloudContainer == null) {
+			cloudContainer = getCloudBlobClient().getContainerReference(container);
+			CloudBlobContainer existing = containers.putIfAbsent(container, cloudContainer);
+			if (existing != null) {
+				cloudContainer = existing;
+			}
+		}
+		return cloudContainer;
+	}
+
+	private CloudBlobClient getCloudBlobClient() throws Exception {
+		CloudBlobClient client = cloudBlobClient;
+		if (client == null) {
+			synchronized (this) {
+				client = cloudBlobClient;
+				if (client == null) {
+					log.info("Creating Azure blob client");
+					client = CloudStorageAccount.parse(storageProperties.getConnectionString()).createCloudBlobClient();
+					BlobRequestOptions requestOptions = client.getDefaultRequestOptions();
+					requestOptions.setConcurrentRequestCount(storageProperties.getConcurrentRequestCount());
+					requestOptions.setSingleBlobPutThresholdInBytes(storageProperties.getSingleBlobPutThresholdBytes());
+					cloudBlobClient = client;
+				}
+			}
+		}
+		return client;
+	}
 }
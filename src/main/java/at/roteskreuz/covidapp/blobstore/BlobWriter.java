@@ -0,0 +1,20 @@
+package at.roteskreuz.covidapp.blobstore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Callback writing the contents of an object straight into the blobstore
+ */
+@FunctionalInterface
+public interface BlobWriter {
+
+	/**
+	 * Writes the contents of the object.
+	 * The stream is opened and closed by the blobstore.
+	 * @param output stream of the stored object
+	 * @throws IOException 
+	 */
+	void writeTo(OutputStream output) throws IOException;
+
+}
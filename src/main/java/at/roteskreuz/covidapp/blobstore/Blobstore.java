@@ -1,5 +1,9 @@
 package at.roteskreuz.covidapp.blobstore;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Blobstore defines the minimum interface for a blob storage system
  *
@@ -9,9 +13,20 @@ public interface Blobstore {
 	
 	void createObject(String bucket, String objectName, byte[] contents)  throws Exception ;
 
+	void createObject(String bucket, String objectName, BlobWriter writer)  throws Exception ;
+
 	boolean deleteObject(String bucket, String objectName)  throws Exception ;
 	
 	void copy(String bucket, String sourcePath, String destinationPath) throws Exception;
 	
+	void createObjects(String bucket, Map<String, byte[]> objects) throws Exception;
+
+	int deleteObjects(String bucket, Collection<String> objectNames) throws Exception;
+
+	CompletableFuture<Void> createObjectAsync(String bucket, String objectName, byte[] contents);
+
+	CompletableFuture<Void> createObjectAsync(String bucket, String objectName, BlobWriter writer);
+
+	CompletableFuture<Boolean> deleteObjectAsync(String bucket, String objectName);
 	
 }
@@ -1,19 +1,44 @@
 package at.roteskreuz.covidapp.blobstore;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * FilesystemStorage implements Blobstore and provides the ability write files
  * to the file-system.
+ * Batch deletes remove every file first and the folders that became empty afterwards.
+ * Files are written into a temporary file and moved into place atomically,
+ * so readers serving the folder directly never see a partially written file.
  *
  * @author Zoltán Puskai
  */
 @Slf4j
-public class FilesystemStorage implements Blobstore {
+public class FilesystemStorage extends AbstractBlobstore {
+
+	/**
+	 * Creates the storage
+	 * @param executor executor running the asynchronous and batch operations
+	 */
+	public FilesystemStorage(Executor executor) {
+		super(executor);
+	}
 
 	/**
 	 * Creates a file in the file-system
@@ -27,9 +52,32 @@ public class FilesystemStorage implements Blobstore {
 	public void createObject(String folder, String filename, byte[] contents) throws Exception {
 		String path = folder + File.separator + filename;
 		log.debug(String.format("Filesystem storage will create file: %s", path));
-		File file = new File(path);
-		file.getParentFile().mkdirs();
-		Files.write(Paths.get(path), contents);
+		writeAtomically(Paths.get(path), channel -> {
+			ByteBuffer buffer = ByteBuffer.wrap(contents);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		});
+	}
+
+	/**
+	 * Creates a file in the file-system, the contents are written straight into the file
+	 *
+	 * @param folder name of the folder
+	 * @param filename name of the file to be stored
+	 * @param writer callback writing the contents
+	 * @throws Exception
+	 */
+	@Override
+	public void createObject(String folder, String filename, BlobWriter writer) throws Exception {
+		String path = folder + File.separator + filename;
+		log.debug(String.format("Filesystem storage will create file: %s", path));
+		writeAtomically(Paths.get(path), channel -> {
+			//the channel is closed after it was forced to the disk
+			OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel));
+			writer.writeTo(output);
+			output.flush();
+		});
 	}
 
 	/**
@@ -47,18 +95,42 @@ public class FilesystemStorage implements Blobstore {
 		File file = new File(path);
 
 		if (file.exists()) {
-			File parentDir = file.getParentFile();
 			boolean result = file.delete();
-			if (parentDir.listFiles().length == 0) {
-				parentDir.delete();
-			}
+			deleteIfEmpty(file.getParentFile());
 			return result;
 		}
 		return false;
 	}
 
 	/**
-	 * Copies a file (and replaces if destination exists)
+	 * Deletes files from the file-system and removes the folders that became empty
+	 *
+	 * @param folder name of the folder
+	 * @param filenames names of the files to be deleted
+	 * @return number of deleted files
+	 * @throws Exception
+	 */
+	@Override
+	public int deleteObjects(String folder, Collection<String> filenames) throws Exception {
+		int result = 0;
+		Set<File> parentDirs = new HashSet<>();
+		for (String filename : filenames) {
+			String path = folder + File.separator + filename;
+			log.debug(String.format("Filesystem storage will delete file: %s", path));
+			File file = new File(path);
+			if (file.delete()) {
+				result++;
+			}
+			parentDirs.add(file.getParentFile());
+		}
+		parentDirs.forEach(this::deleteIfEmpty);
+		return result;
+	}
+
+	/**
+	 * Copies a file (and replaces if destination exists).
+	 * The destination is a hard link to the source where the file-system supports it,
+	 * otherwise the contents are transferred between the channels.
 	 *
 	 * @param folder name of the folder
 	 * @param sourceFileName name of the source file
@@ -68,7 +140,78 @@ public class FilesystemStorage implements Blobstore {
 	@Override
 	public void copy(String folder, String sourceFileName, String destinationFileName) throws Exception {
 		log.debug(String.format("Filesystem storage will copy the file : %s to: %s", folder + File.separator + sourceFileName, folder + File.separator + destinationFileName));
-		Files.copy(Paths.get(folder + File.separator + sourceFileName), Paths.get(folder + File.separator + destinationFileName), StandardCopyOption.REPLACE_EXISTING);
+		Path source = Paths.get(folder + File.separator + sourceFileName);
+		Path destination = Paths.get(folder + File.separator + destinationFileName);
+		Files.createDirectories(destination.getParent());
+		Path temp = tempFile(destination);
+		try {
+			Files.createLink(temp, source);
+		} catch (UnsupportedOperationException | IOException e) {
+			log.debug(String.format("Hard link is not supported for %s, the contents will be transferred: %s", destination, e.getMessage()));
+			writeAtomically(destination, channel -> {
+				try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+					long position = 0;
+					long size = input.size();
+					while (position < size) {
+						position += input.transferTo(position, size - position, channel);
+					}
+				}
+			});
+			return;
+		}
+		try {
+			move(temp, destination);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
 	}
 
+	/**
+	 * Writes a file into a temporary file next to the target and moves it into place,
+	 * readers never see a partially written file
+	 *
+	 * @param target path of the file
+	 * @param writer writes the contents into the channel
+	 * @throws IOException
+	 */
+	private void writeAtomically(Path target, ChannelWriter writer) throws IOException {
+		Files.createDirectories(target.getParent());
+		Path temp = tempFile(target);
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				writer.write(channel);
+				channel.force(true);
+			}
+			move(temp, target);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Path tempFile(Path target) {
+		return target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+	}
+
+	private void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			log.warn(String.format("Atomic move is not supported for %s, the file will be replaced", target));
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void deleteIfEmpty(File dir) {
+		String[] children = dir.list();
+		//the folder might have been removed concurrently
+		if (children != null && children.length == 0) {
+			dir.delete();
+		}
+	}
+
+	@FunctionalInterface
+	private interface ChannelWriter {
+
+		void write(FileChannel channel) throws IOException;
+	}
 }
@@ -0,0 +1,184 @@
+package at.roteskreuz.covidapp.blobstore;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Blobstore recording the latency of the operations and the uploaded bytes.
+ * Delegates every operation to the configured blobstore.
+ */
+public class MeteredBlobstore implements Blobstore {
+
+	private static final String OPERATION_TIMER = "blobstore.operation";
+
+	private final Blobstore delegate;
+	private final MeterRegistry meterRegistry;
+	private final String type;
+	private final DistributionSummary uploadedBytes;
+
+	/**
+	 * Creates the blobstore
+	 *
+	 * @param delegate blobstore doing the operations
+	 * @param meterRegistry registry of the metrics
+	 * @param type type of the delegate used as tag of the metrics
+	 */
+	public MeteredBlobstore(Blobstore delegate, MeterRegistry meterRegistry, String type) {
+		this.delegate = delegate;
+		this.meterRegistry = meterRegistry;
+		this.type = type;
+		this.uploadedBytes = DistributionSummary.builder("blobstore.upload.bytes")
+				.description("Size of the uploaded objects")
+				.baseUnit("bytes")
+				.tag("type", type)
+				.register(meterRegistry);
+	}
+
+	@Override
+	public void createObject(String bucket, String objectName, byte[] contents) throws Exception {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = "failure";
+		try {
+			delegate.createObject(bucket, objectName, contents);
+			uploadedBytes.record(contents.length);
+			outcome = "success";
+		} finally {
+			stop(sample, "create", outcome);
+		}
+	}
+
+	@Override
+	public void createObject(String bucket, String objectName, BlobWriter writer) throws Exception {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = "failure";
+		try {
+			delegate.createObject(bucket, objectName, counting(writer));
+			outcome = "success";
+		} finally {
+			stop(sample, "create", outcome);
+		}
+	}
+
+	@Override
+	public boolean deleteObject(String bucket, String objectName) throws Exception {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = "failure";
+		try {
+			boolean result = delegate.deleteObject(bucket, objectName);
+			outcome = "success";
+			return result;
+		} finally {
+			stop(sample, "delete", outcome);
+		}
+	}
+
+	@Override
+	public void copy(String bucket, String sourcePath, String destinationPath) throws Exception {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = "failure";
+		try {
+			delegate.copy(bucket, sourcePath, destinationPath);
+			outcome = "success";
+		} finally {
+			stop(sample, "copy", outcome);
+		}
+	}
+
+	@Override
+	public void createObjects(String bucket, Map<String, byte[]> objects) throws Exception {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = "failure";
+		try {
+			delegate.createObjects(bucket, objects);
+			objects.values().forEach(contents -> uploadedBytes.record(contents.length));
+			outcome = "success";
+		} finally {
+			stop(sample, "create_batch", outcome);
+		}
+	}
+
+	@Override
+	public int deleteObjects(String bucket, Collection<String> objectNames) throws Exception {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		String outcome = "failure";
+		try {
+			int result = delegate.deleteObjects(bucket, objectNames);
+			outcome = "success";
+			return result;
+		} finally {
+			stop(sample, "delete_batch", outcome);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> createObjectAsync(String bucket, String objectName, byte[] contents) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		return delegate.createObjectAsync(bucket, objectName, contents)
+				.whenComplete((result, e) -> {
+					if (e == null) {
+						uploadedBytes.record(contents.length);
+					}
+					stop(sample, "create", e == null ? "success" : "failure");
+				});
+	}
+
+	@Override
+	public CompletableFuture<Void> createObjectAsync(String bucket, String objectName, BlobWriter writer) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		return delegate.createObjectAsync(bucket, objectName, counting(writer))
+				.whenComplete((result, e) -> stop(sample, "create", e == null ? "success" : "failure"));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> deleteObjectAsync(String bucket, String objectName) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		return delegate.deleteObjectAsync(bucket, objectName)
+				.whenComplete((result, e) -> stop(sample, "delete", e == null ? "success" : "failure"));
+	}
+
+	private void stop(Timer.Sample sample, String operation, String outcome) {
+		sample.stop(Timer.builder(OPERATION_TIMER)
+				.description("Latency of the blobstore operations")
+				.tags("type", type, "operation", operation, "outcome", outcome)
+				.register(meterRegistry));
+	}
+
+	/**
+	 * Wraps a writer to record the number of written bytes once the writer finished
+	 */
+	private BlobWriter counting(BlobWriter writer) {
+		return output -> {
+			CountingOutputStream countingOutput = new CountingOutputStream(output);
+			writer.writeTo(countingOutput);
+			uploadedBytes.record(countingOutput.count);
+		};
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package at.roteskreuz.covidapp.blobstore;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -22,6 +25,18 @@ public class NoopBlobstore implements Blobstore {
 		log.info(String.format("Noop blobstore will not any create file for bucket: %s and objectName: %s",bucket, objectName));
 	}
 
+	/**
+	 * This method does not store any object
+	 * @param bucket
+	 * @param objectName
+	 * @param writer
+	 * @throws Exception 
+	 */
+	@Override
+	public void createObject(String bucket, String objectName, BlobWriter writer) throws Exception {
+		log.info(String.format("Noop blobstore will not any create file for bucket: %s and objectName: %s",bucket, objectName));
+	}
+
 	/**
 	 * This method does not delete any object
 	 * @param bucket
@@ -46,4 +61,66 @@ public class NoopBlobstore implements Blobstore {
 		log.info(String.format("Noop blobstore will not copy any file for bucket: %s",bucket));
 	}
 
+	/**
+	 * This method does not store any object
+	 * @param bucket
+	 * @param objects
+	 * @throws Exception 
+	 */
+	@Override
+	public void createObjects(String bucket, Map<String, byte[]> objects) throws Exception {
+		log.info(String.format("Noop blobstore will not create %d files for bucket: %s", objects.size(), bucket));
+	}
+
+	/**
+	 * This method does not delete any object
+	 * @param bucket
+	 * @param objectNames
+	 * @return
+	 * @throws Exception 
+	 */
+	@Override
+	public int deleteObjects(String bucket, Collection<String> objectNames) throws Exception {
+		log.info(String.format("Noop blobstore will not delete %d files for bucket: %s", objectNames.size(), bucket));
+		return objectNames.size();
+	}
+
+	/**
+	 * This method does not store any object
+	 * @param bucket
+	 * @param objectName
+	 * @param contents
+	 * @return completed future
+	 */
+	@Override
+	public CompletableFuture<Void> createObjectAsync(String bucket, String objectName, byte[] contents) {
+		log.info(String.format("Noop blobstore will not any create file for bucket: %s and objectName: %s",bucket, objectName));
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * This method does not store any object
+	 * @param bucket
+	 * @param objectName
+	 * @param writer
+	 * @return completed future
+	 */
+	@Override
+	public CompletableFuture<Void> createObjectAsync(String bucket, String objectName, BlobWriter writer) {
+		log.info(String.format("Noop blobstore will not any create file for bucket: %s and objectName: %s",bucket, objectName));
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * This method does not delete any object
+	 * @param bucket
+	 * @param objectName
+	 * @return completed future
+	 */
+	@Override
+	public CompletableFuture<Boolean> deleteObjectAsync(String bucket, String objectName) {
+		log.info(String.format("Noop blobstore will not delete any file for bucket: %s and objectName: %s",bucket, objectName));
+		return CompletableFuture.completedFuture(true);
+	}
+
 }
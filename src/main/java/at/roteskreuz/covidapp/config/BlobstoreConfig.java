@@ -3,12 +3,16 @@ package at.roteskreuz.covidapp.config;
 import at.roteskreuz.covidapp.blobstore.AzureBlobstore;
 import at.roteskreuz.covidapp.blobstore.Blobstore;
 import at.roteskreuz.covidapp.blobstore.FilesystemStorage;
+import at.roteskreuz.covidapp.blobstore.MeteredBlobstore;
 import at.roteskreuz.covidapp.blobstore.NoopBlobstore;
+import at.roteskreuz.covidapp.properties.AzureStorageProperties;
 import at.roteskreuz.covidapp.properties.ExportProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * Class that configures the blobstore
@@ -21,24 +25,27 @@ import org.springframework.context.annotation.Configuration;
 public class BlobstoreConfig {
 
 	private final ExportProperties exportProperties;
+	private final AzureStorageProperties azureStorageProperties;
 
 	/**
-	 * Instantiates a blobstore
+	 * Instantiates a blobstore, its operations are recorded as blobstore.* metrics
+	 * @param blobstoreExecutor executor running the asynchronous and batch operations of the blobstore
+	 * @param meterRegistry registry of the metrics
 	 * @return blobstore according to the configuration
 	 */	
 	@Bean
-	public Blobstore blobstore() {
+	public Blobstore blobstore(ThreadPoolTaskExecutor blobstoreExecutor, MeterRegistry meterRegistry) {
 
 		Blobstore result;
 		switch (exportProperties.getBlobstoreType()) {
 			case AZURE_CLOUD_STORAGE: {
 				log.info("Creating Azure blobstore");
-				result = new AzureBlobstore();
+				result = new AzureBlobstore(blobstoreExecutor, azureStorageProperties);
 				break;
 			}
 			case FILESYSTEM: {
 				log.info("Creating filesystem blobstore");
-				result = new FilesystemStorage();
+				result = new FilesystemStorage(blobstoreExecutor);
 				break;
 			}
 			case NONE: {
@@ -51,6 +58,6 @@ public class BlobstoreConfig {
 			}
 
 		}
-		return result;
+		return new MeteredBlobstore(result, meterRegistry, exportProperties.getBlobstoreType().getName());
 	}
 }
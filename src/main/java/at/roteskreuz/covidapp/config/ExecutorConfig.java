@@ -0,0 +1,87 @@
+package at.roteskreuz.covidapp.config;
+
+import at.roteskreuz.covidapp.properties.ExportProperties;
+import at.roteskreuz.covidapp.properties.PublishProperties;
+import java.util.concurrent.ThreadPoolExecutor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Configuration class for the executors used by the background tasks
+ */
+@Configuration
+@RequiredArgsConstructor
+public class ExecutorConfig {
+
+	private final ExportProperties exportProperties;
+	private final PublishProperties publishProperties;
+
+	/**
+	 * Creates the executor used to export the export configurations in parallel.
+	 * The number of threads is bounded, the queue is not: it holds the configs of the running export,
+	 * the exports that do not finish within the worker timeout are cancelled.
+	 *
+	 * @return executor with a bounded number of threads
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor exportExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(exportProperties.getWorkerPoolSize());
+		executor.setMaxPoolSize(exportProperties.getWorkerPoolSize());
+		executor.setThreadNamePrefix("export-");
+		return executor;
+	}
+
+	/**
+	 * Creates the executor used to marshal, sign and upload the batch files of an export in parallel.
+	 * When the queue is full the exporting thread creates the file itself, so the number of
+	 * groups held in memory stays bounded.
+	 *
+	 * @return bounded executor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor exportBatchExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(exportProperties.getBatchPoolSize());
+		executor.setMaxPoolSize(exportProperties.getBatchPoolSize());
+		executor.setQueueCapacity(exportProperties.getBatchPoolSize());
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setThreadNamePrefix("export-batch-");
+		return executor;
+	}
+
+	/**
+	 * Creates the executor used for the asynchronous and batch operations of the blobstore.
+	 * When the queue is full the calling thread does the I/O itself.
+	 *
+	 * @return bounded executor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor blobstoreExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(exportProperties.getBlobstorePoolSize());
+		executor.setMaxPoolSize(exportProperties.getBlobstorePoolSize());
+		executor.setQueueCapacity(exportProperties.getBlobstorePoolSize());
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setThreadNamePrefix("blobstore-");
+		return executor;
+	}
+
+	/**
+	 * Creates the executor used to store the exposures of asynchronous publish requests.
+	 * When the queue is full the requests are rejected instead of blocking the request threads.
+	 *
+	 * @return bounded executor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor publishExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(publishProperties.getAsyncPoolSize());
+		executor.setMaxPoolSize(publishProperties.getAsyncPoolSize());
+		executor.setQueueCapacity(publishProperties.getAsyncQueueCapacity());
+		executor.setThreadNamePrefix("publish-");
+		return executor;
+	}
+}
@@ -0,0 +1,73 @@
+package at.roteskreuz.covidapp.config;
+
+import at.roteskreuz.covidapp.properties.TanProperties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Circuit breaker and bulkhead configuration of the external services.
+ * The states are published as resilience4j.* metrics.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class ResilienceConfig {
+
+	private static final String TAN_SERVICE = "tan";
+
+	private final TanProperties tanProperties;
+
+	/**
+	 * Creates the circuit breaker of the TAN service.
+	 * Connection errors, timeouts and 5xx responses are failures, 4xx responses are answers of a working service.
+	 *
+	 * @param meterRegistry registry of the metrics
+	 * @return circuit breaker
+	 */
+	@Bean
+	public CircuitBreaker tanCircuitBreaker(MeterRegistry meterRegistry) {
+		CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+				.slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+				.slidingWindowSize(tanProperties.getCircuitBreakerSlidingWindowSize())
+				.minimumNumberOfCalls(tanProperties.getCircuitBreakerMinimumNumberOfCalls())
+				.failureRateThreshold(tanProperties.getCircuitBreakerFailureRateThreshold())
+				.waitDurationInOpenState(tanProperties.getCircuitBreakerWaitDurationInOpenState())
+				.permittedNumberOfCallsInHalfOpenState(tanProperties.getCircuitBreakerPermittedNumberOfCallsInHalfOpenState())
+				.automaticTransitionFromOpenToHalfOpenEnabled(true)
+				.recordException(e -> !(e instanceof HttpClientErrorException))
+				.build();
+		CircuitBreakerRegistry registry = CircuitBreakerRegistry.of(config);
+		CircuitBreaker circuitBreaker = registry.circuitBreaker(TAN_SERVICE);
+		TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+		return circuitBreaker;
+	}
+
+	/**
+	 * Creates the bulkhead of the TAN service, it limits the number of request threads waiting for the TAN service
+	 *
+	 * @param meterRegistry registry of the metrics
+	 * @return bulkhead
+	 */
+	@Bean
+	public Bulkhead tanBulkhead(MeterRegistry meterRegistry) {
+		BulkheadConfig config = BulkheadConfig.custom()
+				.maxConcurrentCalls(tanProperties.getBulkheadMaxConcurrentCalls())
+				.maxWaitDuration(tanProperties.getBulkheadMaxWaitDuration())
+				.build();
+		BulkheadRegistry registry = BulkheadRegistry.of(config);
+		Bulkhead bulkhead = registry.bulkhead(TAN_SERVICE);
+		TaggedBulkheadMetrics.ofBulkheadRegistry(registry).bindTo(meterRegistry);
+		return bulkhead;
+	}
+
+}
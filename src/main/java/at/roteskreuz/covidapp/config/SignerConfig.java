@@ -1,7 +1,9 @@
 package at.roteskreuz.covidapp.config;
 
 import at.roteskreuz.covidapp.properties.SignatureProperties;
+import at.roteskreuz.covidapp.sign.AzureKeyVaultSecretProvider;
 import at.roteskreuz.covidapp.sign.AzureSigner;
+import at.roteskreuz.covidapp.sign.CachingSecretProvider;
 import at.roteskreuz.covidapp.sign.FilesystemSigner;
 import at.roteskreuz.covidapp.sign.NoopSigner;
 import at.roteskreuz.covidapp.sign.Signer;
@@ -32,7 +34,8 @@ public class SignerConfig {
 		switch (signatureProperties.getSignatureType()) {
 			case AZURE: {
 				log.info("Creating Azure sign");
-				result = new AzureSigner(signatureProperties);
+				result = new AzureSigner(signatureProperties, new CachingSecretProvider(new AzureKeyVaultSecretProvider(signatureProperties),
+						signatureProperties.getAzureSecretTtl(), signatureProperties.getAzureSecretRefreshAhead()));
 				break;
 			}
 			case FILESYSTEM: {
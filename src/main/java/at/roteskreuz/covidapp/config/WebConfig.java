@@ -1,11 +1,26 @@
 package at.roteskreuz.covidapp.config;
 
+import at.roteskreuz.covidapp.properties.TanProperties;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.Filter;
+import lombok.RequiredArgsConstructor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 /**
  * Web configuration 
@@ -13,8 +28,11 @@ import org.springframework.web.filter.ShallowEtagHeaderFilter;
  * @author Zoltán Puskai
  */
 @Configuration
+@RequiredArgsConstructor
 public class WebConfig {
 
+	private final TanProperties tanProperties;
+
 	
 	/**
 	 * Creates an ETag filter
@@ -26,15 +44,68 @@ public class WebConfig {
 		return new ShallowEtagHeaderFilter();
 	}
 	
+	/**
+	 * Creates a pooled HTTP client, the connections to the TAN service are kept alive and reused
+	 *
+	 * @return HTTP client
+	 */
+	@Bean
+	public CloseableHttpClient httpClient() {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(tanProperties.getMaxConnections());
+		connectionManager.setDefaultMaxPerRoute(tanProperties.getMaxConnections());
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout((int) tanProperties.getConnectTimeout().toMillis())
+				.setSocketTimeout((int) tanProperties.getReadTimeout().toMillis())
+				.setConnectionRequestTimeout((int) tanProperties.getConnectionRequestTimeout().toMillis())
+				.build();
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(tanProperties.getIdleConnectionTimeout().toMillis(), TimeUnit.MILLISECONDS)
+				.build();
+	}
+
 	/**
 	 * Creates a new RestTemplate
 	 *
 	 * @param builder the builder used to create the template
+	 * @param httpClient pooled HTTP client
 	 * @return configured RestTemplate
 	 */		
 	@Bean
-	public RestTemplate restTemplate(RestTemplateBuilder builder) {
-		return builder.build();
+	public RestTemplate restTemplate(RestTemplateBuilder builder, CloseableHttpClient httpClient) {
+		return builder
+				.requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+				.build();
 	}	
+
+	/**
+	 * Creates a non-blocking client for the TAN service used by the asynchronous publish.
+	 * The read and write timeouts close a hanging connection, the pending acquires are bounded,
+	 * so an overloaded pool fails fast instead of queueing the requests.
+	 *
+	 * @param builder the builder used to create the client
+	 * @return configured WebClient
+	 */
+	@Bean
+	public WebClient tanWebClient(WebClient.Builder builder) {
+		ConnectionProvider connectionProvider = ConnectionProvider.builder("tan")
+				.maxConnections(tanProperties.getMaxConnections())
+				.pendingAcquireMaxCount(tanProperties.getPendingAcquireMaxCount())
+				.pendingAcquireTimeout(tanProperties.getConnectionRequestTimeout())
+				.build();
+		long readTimeout = tanProperties.getReadTimeout().toMillis();
+		HttpClient httpClient = HttpClient.create(connectionProvider)
+				.tcpConfiguration(tcpClient -> tcpClient
+						.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) tanProperties.getConnectTimeout().toMillis())
+						.doOnConnected(connection -> connection
+								.addHandlerLast(new ReadTimeoutHandler(readTimeout, TimeUnit.MILLISECONDS))
+								.addHandlerLast(new WriteTimeoutHandler(readTimeout, TimeUnit.MILLISECONDS))));
+		return builder
+				.clientConnector(new ReactorClientHttpConnector(httpClient))
+				.build();
+	}
 	
 }
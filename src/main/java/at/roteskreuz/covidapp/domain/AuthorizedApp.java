@@ -3,10 +3,16 @@ package at.roteskreuz.covidapp.domain;
 import at.roteskreuz.covidapp.convert.ListToStringConverter;
 import java.io.Serializable;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.Transient;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -36,6 +42,12 @@ public class AuthorizedApp implements Serializable {
 	@Convert(converter = ListToStringConverter.class)
 	List<String> allowedRegions;
 
+	// Set of the allowed regions, precomputed for the region checks.
+	@Transient
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private transient Set<String> allowedRegionSet = Collections.emptySet();
+
 	// SafetyNet configuration.
 	private String safetyNetApkDigestSHA256;
 
@@ -54,11 +66,21 @@ public class AuthorizedApp implements Serializable {
 
 	private String deviceCheckPrivateKey;
 
+	public void setAllowedRegions(List<String> allowedRegions) {
+		this.allowedRegions = allowedRegions;
+		initAllowedRegionSet();
+	}
+
 	public boolean isRegionAllowed(String region) {
-		if (allowedRegions.isEmpty()) {
+		if (allowedRegionSet.isEmpty()) {
 			return true;
 		}
-		return allowedRegions.contains(region.toUpperCase());
+		return allowedRegionSet.contains(region.toUpperCase());
+	}
+
+	@PostLoad
+	void initAllowedRegionSet() {
+		allowedRegionSet = allowedRegions == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(allowedRegions));
 	}
 
 }
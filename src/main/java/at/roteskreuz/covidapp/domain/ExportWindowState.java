@@ -0,0 +1,40 @@
+package at.roteskreuz.covidapp.domain;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OrderColumn;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Last written state of an export window.
+ * The batch files of a window are reused by the next export as long as its fingerprint does not change.
+ * The state of the delta window has no fingerprint, it keeps the earliest change of the exposures
+ * dropped from the last delta, the next delta starts there.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportWindowState implements Serializable {
+
+	@Id
+	private String id;
+	@ManyToOne
+	private ExportConfig config;
+	private String fingerprint;
+	@ElementCollection(fetch = FetchType.EAGER)
+	@OrderColumn
+	private List<String> objectNames = new ArrayList<>();
+	private LocalDateTime updatedAt;
+}
@@ -2,25 +2,47 @@ package at.roteskreuz.covidapp.domain;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.persistence.CollectionTable;
 import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.Id;
-import lombok.AllArgsConstructor;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.springframework.data.domain.Persistable;
 
 /**
- * Exposure represents the record as stored in the database
+ * Exposure represents the record as stored in the database.
+ * The regions are stored as a comma separated string (",AT,HU,") and normalised
+ * into the exposure_region table, which is used by the queries.
+ * The key is assigned by the client, new exposures are therefore tracked explicitly
+ * so they can be inserted without a select.
  *
  * @author Zoltán Puskai
  */	
 @Entity
+@Table(indexes = {
+	@Index(name = "idx_exposure_diagnosis_type_interval_number", columnList = "diagnosis_type, interval_number"),
+	@Index(name = "idx_exposure_interval_number", columnList = "interval_number"),
+	@Index(name = "idx_exposure_created_at", columnList = "created_at"),
+	@Index(name = "idx_exposure_updated_at", columnList = "updated_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
-@AllArgsConstructor
-public class Exposure implements Serializable {
+public class Exposure implements Serializable, Persistable<String> {
 	
 	@Id
 	private String exposureKey;
@@ -46,16 +68,78 @@ public class Exposure implements Serializable {
 
 	private LocalDateTime updatedAt;
 
+	@ElementCollection
+	@CollectionTable(name = "exposure_region", joinColumns = @JoinColumn(name = "exposure_key"),
+			indexes = @Index(name = "idx_exposure_region_region", columnList = "region, exposure_key"))
+	@Column(name = "region", nullable = false)
+	@Setter(AccessLevel.NONE)
+	private Set<String> regionSet = new HashSet<>();
+
+	@Transient
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private transient boolean newExposure = true;
+
+	public Exposure(String exposureKey, String password, String appPackageName, String regions, Integer intervalNumber, Integer intervalCount, LocalDateTime createdAt, Boolean localProvenance, Long federationSyncID, String diagnosisType, LocalDateTime updatedAt) {
+		this.exposureKey = exposureKey;
+		this.password = password;
+		this.appPackageName = appPackageName;
+		this.intervalNumber = intervalNumber;
+		this.intervalCount = intervalCount;
+		this.createdAt = createdAt;
+		this.localProvenance = localProvenance;
+		this.federationSyncID = federationSyncID;
+		this.diagnosisType = diagnosisType;
+		this.updatedAt = updatedAt;
+		setRegions(regions);
+	}
 
 	public Exposure(String exposureKey, String password, String regions, Integer intervalNumber, Integer intervalCount, String diagnosisType) {
 		this.exposureKey = exposureKey;
 		this.password = password;
-		this.regions = regions;
 		this.intervalNumber = intervalNumber;
 		this.intervalCount = intervalCount;
 		this.diagnosisType = diagnosisType;
+		setRegions(regions);
+	}
+
+	/**
+	 * Sets the comma separated regions and the normalised region set
+	 *
+	 * @param regions comma separated regions like ",AT,HU,"
+	 */
+	public void setRegions(String regions) {
+		this.regions = regions;
+		//a new set is assigned, the current one might not be initialized
+		this.regionSet = regions == null ? new HashSet<>() : Arrays.stream(regions.split(","))
+				.map(String::trim)
+				.filter(s -> !s.isEmpty())
+				.collect(Collectors.toCollection(HashSet::new));
 	}
 	
+	@Override
+	public String getId() {
+		return exposureKey;
+	}
+
+	@Override
+	public boolean isNew() {
+		return newExposure;
+	}
+
+	/**
+	 * Marks the exposure as new again after the transaction inserting it was rolled back
+	 */
+	public void markNew() {
+		this.newExposure = true;
+	}
+
+	@PostLoad
+	@PostPersist
+	void markNotNew() {
+		this.newExposure = false;
+	}
+
 	public  Integer getTransmissionRisk() {
 		int result =  0;
 		switch(diagnosisType) {
@@ -0,0 +1,28 @@
+package at.roteskreuz.covidapp.domain;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Data migration that was completed, it is not run again by the next startups
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class Migration implements Serializable {
+
+	@Id
+	@Column(name = "migration_id")
+	private String id;
+	private LocalDateTime completedAt;
+
+}
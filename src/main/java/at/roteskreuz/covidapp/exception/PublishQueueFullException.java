@@ -0,0 +1,16 @@
+package at.roteskreuz.covidapp.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when the write-behind queue of publish requests is full
+ */
+@ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE, reason = "Publish queue is full")
+public class PublishQueueFullException extends AbstractCovidException {
+
+	public PublishQueueFullException(String message) {
+		super(message);
+	}
+
+}
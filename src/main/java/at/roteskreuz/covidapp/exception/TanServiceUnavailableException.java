@@ -0,0 +1,16 @@
+package at.roteskreuz.covidapp.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when the TAN service is not called because its circuit breaker is open or its bulkhead is full
+ */
+@ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE, reason = "TAN service is unavailable")
+public class TanServiceUnavailableException extends AbstractCovidException {
+
+	public TanServiceUnavailableException(String message) {
+		super(message);
+	}
+
+}
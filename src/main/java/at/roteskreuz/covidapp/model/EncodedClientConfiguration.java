@@ -0,0 +1,43 @@
+package at.roteskreuz.covidapp.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Client configuration prepared for the HTTP responses
+ */
+@Getter
+@RequiredArgsConstructor
+public class EncodedClientConfiguration {
+
+	/**
+	 * Configuration in JSON format encoded in UTF-8
+	 */
+	private final byte[] data;
+
+	/**
+	 * Gzip compressed configuration, null if compressing does not make it smaller
+	 */
+	private final byte[] gzipData;
+
+	/**
+	 * Strong ETag of the configuration
+	 */
+	private final String etag;
+
+	/**
+	 * Date when the configuration was created in epoch milliseconds
+	 */
+	private final long lastModified;
+
+	/**
+	 * Returns the strong ETag of the gzip compressed configuration.
+	 * The compressed representation has different bytes, so it must not share the ETag of the identity one.
+	 *
+	 * @return ETag of the gzip compressed configuration
+	 */
+	public String getGzipEtag() {
+		return etag.substring(0, etag.length() - 1) + "-gzip\"";
+	}
+
+}
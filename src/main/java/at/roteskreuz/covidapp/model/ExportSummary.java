@@ -0,0 +1,31 @@
+package at.roteskreuz.covidapp.model;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * Summary of the exposures to be exported grouped by interval number.
+ * The counts define the batches of the windows, the last changes tell if a window has to be written again.
+ */
+@Getter
+public class ExportSummary {
+
+	private final Map<Integer, Long> counts = new HashMap<>();
+	private final Map<Integer, LocalDateTime> lastChanges = new HashMap<>();
+
+	/**
+	 * Adds the summary of one interval number
+	 *
+	 * @param intervalNumber interval number
+	 * @param count number of exposures
+	 * @param lastChange latest creation or update timestamp of the exposures
+	 */
+	public void add(Integer intervalNumber, Long count, LocalDateTime lastChange) {
+		counts.put(intervalNumber, count);
+		if (lastChange != null) {
+			lastChanges.put(intervalNumber, lastChange);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package at.roteskreuz.covidapp.model;
+
+import at.roteskreuz.covidapp.domain.Exposure;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Window of an export (full or daily batch).
+ * Collects the exposures that belong to the window while they are read in a single pass
+ * and keeps at most one group of records in memory.
+ * A reused window is not written again, it refers to the batch files of a previous export.
+ * An arrival window contains the exposures that arrived in its time range regardless of their interval number.
+ */
+@Getter
+public class ExportWindow {
+
+	private final String filePrefix;
+	private final LocalDateTime startTimestamp;
+	private final LocalDateTime endTimestamp;
+	private final long startIntervalNumber;
+	private final long endIntervalNumber;
+	private final int maxRecords;
+	private final long expectedCount;
+	private final int batchSize;
+	private final boolean byArrival;
+	private final List<Future<String>> batchFiles = new ArrayList<>();
+	private final List<String> objectNames = new ArrayList<>();
+	private List<Exposure> group = new ArrayList<>();
+	private long count;
+	private long dropped;
+	private LocalDateTime firstDroppedChange;
+	private int batchNum;
+	@Setter
+	private String fingerprint;
+	private boolean reused;
+
+	/**
+	 * Creates a window
+	 *
+	 * @param filePrefix prefix of the exported files
+	 * @param startTimestamp start timestamp written into the exported files
+	 * @param endTimestamp end timestamp written into the exported files
+	 * @param startIntervalNumber first interval number of the window (inclusive)
+	 * @param endIntervalNumber last interval number of the window (exclusive)
+	 * @param countsByIntervalNumber number of exposures per interval number
+	 * @param maxRecords maximum number of records in one batch file
+	 */
+	public ExportWindow(String filePrefix, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long startIntervalNumber, long endIntervalNumber, Map<Integer, Long> countsByIntervalNumber, int maxRecords) {
+		this(filePrefix, startTimestamp, endTimestamp, startIntervalNumber, endIntervalNumber,
+				countsByIntervalNumber.entrySet().stream()
+						.filter(e -> e.getKey() >= startIntervalNumber && e.getKey() < endIntervalNumber)
+						.mapToLong(Map.Entry::getValue)
+						.sum(),
+				maxRecords, false);
+	}
+
+	private ExportWindow(String filePrefix, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long startIntervalNumber, long endIntervalNumber, long expectedCount, int maxRecords, boolean byArrival) {
+		this.filePrefix = filePrefix;
+		this.startTimestamp = startTimestamp;
+		this.endTimestamp = endTimestamp;
+		this.startIntervalNumber = startIntervalNumber;
+		this.endIntervalNumber = endIntervalNumber;
+		this.maxRecords = maxRecords;
+		this.expectedCount = expectedCount;
+		this.batchSize = (int) ((expectedCount + maxRecords - 1) / maxRecords);
+		this.byArrival = byArrival;
+	}
+
+	/**
+	 * Creates an arrival window, the interval numbers of the window are the interval numbers of its time range
+	 *
+	 * @param filePrefix prefix of the exported files
+	 * @param startTimestamp start of the arrival time range (inclusive)
+	 * @param endTimestamp end of the arrival time range (exclusive)
+	 * @param startIntervalNumber interval number of the start timestamp
+	 * @param endIntervalNumber interval number of the end timestamp
+	 * @param expectedCount number of exposures that arrived in the time range
+	 * @param maxRecords maximum number of records in one batch file
+	 * @return the window
+	 */
+	public static ExportWindow ofArrival(String filePrefix, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long startIntervalNumber, long endIntervalNumber, long expectedCount, int maxRecords) {
+		return new ExportWindow(filePrefix, startTimestamp, endTimestamp, startIntervalNumber, endIntervalNumber, expectedCount, maxRecords, true);
+	}
+
+	/**
+	 * Checks if an interval number belongs to this window, every interval number belongs to an arrival window
+	 *
+	 * @param intervalNumber interval number
+	 * @return true if the interval number is in the window
+	 */
+	public boolean contains(long intervalNumber) {
+		return byArrival || (intervalNumber >= startIntervalNumber && intervalNumber < endIntervalNumber);
+	}
+
+	/**
+	 * Adds an exposure to the current group
+	 *
+	 * @param exposure exposure to be added
+	 * @return false if the exposure was not counted before the export started,
+	 * these exposures are left out of the batch files and counted as dropped,
+	 * the earliest last change of the dropped exposures is kept
+	 */
+	public boolean add(Exposure exposure) {
+		if (count >= expectedCount) {
+			dropped++;
+			LocalDateTime change = exposure.getUpdatedAt() != null && (exposure.getCreatedAt() == null || exposure.getUpdatedAt().isAfter(exposure.getCreatedAt())) ? exposure.getUpdatedAt() : exposure.getCreatedAt();
+			if (change != null && (firstDroppedChange == null || change.isBefore(firstDroppedChange))) {
+				firstDroppedChange = change;
+			}
+			return false;
+		}
+		group.add(exposure);
+		count++;
+		return true;
+	}
+
+	/**
+	 * @return true if the current group reached the maximum number of records
+	 */
+	public boolean isGroupFull() {
+		return group.size() >= maxRecords;
+	}
+
+	/**
+	 * Hands over the current group and starts a new one
+	 *
+	 * @return the current group
+	 */
+	public List<Exposure> nextGroup() {
+		List<Exposure> result = group;
+		group = new ArrayList<>();
+		batchNum++;
+		return result;
+	}
+
+	/**
+	 * Marks the window as reused, the batch files of the previous export are put into the index file
+	 *
+	 * @param previousObjectNames object names of the previously written batch files
+	 */
+	public void reuse(List<String> previousObjectNames) {
+		objectNames.addAll(previousObjectNames);
+		reused = true;
+	}
+}
@@ -1,5 +1,6 @@
 package at.roteskreuz.covidapp.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
 import lombok.Getter;
@@ -18,4 +19,19 @@ public class IndexFile {
 	private IndexFileBatch fullMediumBatch;
 	@JsonProperty("daily_batches")
 	private List<IndexFileBatch> dailyBatches;
+	/**
+	 * Exposures created or updated since the previous export, the interval is the interval number of the previous export.
+	 * Missing for the first export of a config.
+	 */
+	@JsonProperty("delta_batch")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private IndexFileBatch deltaBatch;
+	/**
+	 * Exposures by arrival time in windows of application.export.truncate-window,
+	 * the interval is the interval number of the start of the window.
+	 * Missing if the window batches are disabled.
+	 */
+	@JsonProperty("window_batches")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private List<IndexFileBatch> windowBatches;
 }
@@ -0,0 +1,20 @@
+package at.roteskreuz.covidapp.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Represents Azure blob storage related external configuration
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "azure.storage")
+public class AzureStorageProperties {
+
+	private String connectionString;
+	private Integer concurrentRequestCount = 4;
+	private Integer singleBlobPutThresholdBytes = 4 * 1024 * 1024;
+	private Integer blockSizeBytes = 4 * 1024 * 1024;
+
+}
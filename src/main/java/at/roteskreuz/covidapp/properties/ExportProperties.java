@@ -1,10 +1,14 @@
 package at.roteskreuz.covidapp.properties;
 
+import at.roteskreuz.covidapp.config.ApplicationConfig;
 import at.roteskreuz.covidapp.model.BlobstoreType;
 import java.time.Duration;
+import java.util.zip.Deflater;
+import javax.validation.constraints.AssertTrue;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
 
 /**
  * Represents export related external configuration
@@ -13,19 +17,48 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  */
 @Getter
 @Setter
+@Validated
 @ConfigurationProperties(prefix = "application.export")
 public class ExportProperties {
 
 	private Duration createTimeout;
 	private Duration workerTimeout;
+	private Integer workerPoolSize = 4;
+	private Integer batchPoolSize = Runtime.getRuntime().availableProcessors();
+	private Integer blobstorePoolSize = 8;
 	private Integer minRecords;
 	private Integer maxRecords = Integer.MAX_VALUE;
+	private Integer readPageSize = 1000;
+	private Integer cleanupChunkSize = 1000;
 	private Integer paddingRange;
+	private Integer zipLevel = Deflater.DEFAULT_COMPRESSION;
 	private Duration truncateWindow;
 	private Duration minWindowAge;
+	private Duration windowPeriod = Duration.ofDays(1);
+	private Duration deltaCommitLag = Duration.ofMinutes(1);
+	private boolean windowBatches;
 	private BlobstoreType blobstoreType = BlobstoreType.NONE;
 	private boolean exportCurrentDay;
+	private boolean incremental = true;
 
-	
+	/**
+	 * The window batches are identified by their first interval number and aligned to the start of the day,
+	 * so the truncate window has to be a multiple of the interval length that divides a day and the window period
+	 *
+	 * @return true if the truncate window is valid
+	 */
+	@AssertTrue(message = "truncate-window must be a multiple of 10 minutes that divides a day and the window-period")
+	public boolean isTruncateWindowValid() {
+		if (truncateWindow == null) {
+			return !windowBatches;
+		}
+		long seconds = truncateWindow.getSeconds();
+		return truncateWindow.getNano() == 0
+				&& seconds > 0
+				&& seconds % ApplicationConfig.INTERVAL_LENGTH.getSeconds() == 0
+				&& Duration.ofDays(1).getSeconds() % seconds == 0
+				&& windowPeriod != null && windowPeriod.getNano() == 0 && windowPeriod.getSeconds() > 0
+				&& windowPeriod.getSeconds() % seconds == 0;
+	}
 	
 }
@@ -20,6 +20,14 @@ public class PublishProperties {
 	private Integer maxKeysOnPublish;
 	private Duration maxIntervalAgeOnPublish;
 	private boolean bypassTanValidation;
+	private boolean writeBehind;
+	private Integer writeBehindQueueCapacity = 10000;
+	private Integer writeBehindBatchSize = 100;
+	private String writeBehindSpillDirectory;
+	private Integer writeBehindMaxAttempts = 10;
+	private boolean async;
+	private Integer asyncPoolSize = 8;
+	private Integer asyncQueueCapacity = 1000;
 	
 	
 }
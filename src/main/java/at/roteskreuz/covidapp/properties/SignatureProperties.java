@@ -1,6 +1,7 @@
 package at.roteskreuz.covidapp.properties;
 
 import at.roteskreuz.covidapp.model.SignatureType;
+import java.time.Duration;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -21,6 +22,8 @@ public class SignatureProperties {
 	private String signatureKeyType = "EC";
 	private String azureKeyVaultName;
 	private String azureSecretName;
+	private Duration azureSecretTtl = Duration.ofMinutes(15);
+	private Duration azureSecretRefreshAhead = Duration.ofMinutes(1);
 	private String filePrivateKeyLocation;
 
 }
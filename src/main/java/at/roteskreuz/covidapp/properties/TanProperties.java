@@ -0,0 +1,32 @@
+package at.roteskreuz.covidapp.properties;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Represents the connection, caching and resilience related external configuration of the TAN service
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "external.personal.data.storage")
+public class TanProperties {
+
+	private Duration connectTimeout = Duration.ofSeconds(2);
+	private Duration readTimeout = Duration.ofSeconds(5);
+	private Duration connectionRequestTimeout = Duration.ofSeconds(2);
+	private Integer maxConnections = 50;
+	private Integer pendingAcquireMaxCount = 100;
+	private Duration idleConnectionTimeout = Duration.ofSeconds(30);
+	private Duration cacheTtl = Duration.ofMinutes(5);
+	private Integer cacheMaxSize = 10000;
+	private Float circuitBreakerFailureRateThreshold = 50f;
+	private Integer circuitBreakerSlidingWindowSize = 20;
+	private Integer circuitBreakerMinimumNumberOfCalls = 10;
+	private Duration circuitBreakerWaitDurationInOpenState = Duration.ofSeconds(30);
+	private Integer circuitBreakerPermittedNumberOfCallsInHalfOpenState = 3;
+	private Integer bulkheadMaxConcurrentCalls = 20;
+	private Duration bulkheadMaxWaitDuration = Duration.ofMillis(100);
+
+}
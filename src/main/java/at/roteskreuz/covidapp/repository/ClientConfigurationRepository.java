@@ -1,7 +1,10 @@
 package at.roteskreuz.covidapp.repository;
 
 import at.roteskreuz.covidapp.domain.ClientConfiguration;
+import java.time.LocalDateTime;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Repository for persisting client configuration
@@ -10,5 +13,12 @@ import org.springframework.data.repository.CrudRepository;
  */
 public interface ClientConfigurationRepository extends CrudRepository<ClientConfiguration, Long> {
 
+	/**
+	 * Finds the creation date of a configuration without loading its data
+	 * @param id id of the configuration
+	 * @return creation date or null if there is no configuration
+	 */
+	@Query("SELECT c.dateCreated FROM ClientConfiguration c WHERE c.id = :id")
+	LocalDateTime findDateCreatedById(@Param("id") Long id);
 	
 }
@@ -4,6 +4,7 @@ import at.roteskreuz.covidapp.domain.ExportConfig;
 import at.roteskreuz.covidapp.domain.ExportFile;
 import at.roteskreuz.covidapp.model.ExportFileStatus;
 import java.util.List;
+import java.util.Optional;
 import org.springframework.data.repository.CrudRepository;
 
 /**
@@ -21,5 +22,13 @@ public interface ExportFileRepository extends CrudRepository<ExportFile, String>
 	 * @return 
 	 */
 	List<ExportFile> findByConfigAndTimestampLessThanAndStatusIsNot(ExportConfig config, Long timestamp, ExportFileStatus status);
+
+	/**
+	 * Finds the latest export file of the given ExportConfig with the given filename suffix
+	 * @param config
+	 * @param suffix
+	 * @return 
+	 */
+	Optional<ExportFile> findFirstByConfigAndFilenameEndingWithOrderByTimestampDesc(ExportConfig config, String suffix);
 	
 }
@@ -0,0 +1,22 @@
+package at.roteskreuz.covidapp.repository;
+
+import at.roteskreuz.covidapp.domain.ExportConfig;
+import at.roteskreuz.covidapp.domain.ExportWindowState;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Repository for persisting the state of the exported windows
+ */
+public interface ExportWindowStateRepository extends CrudRepository<ExportWindowState, String> {
+
+	/**
+	 * Finds the window states of a config that were not written or reused since the given timestamp
+	 * @param config export config
+	 * @param updatedAt timestamp
+	 * @return window states
+	 */
+	List<ExportWindowState> findByConfigAndUpdatedAtBefore(ExportConfig config, LocalDateTime updatedAt);
+
+}
@@ -1,10 +1,15 @@
 package at.roteskreuz.covidapp.repository;
 
 import at.roteskreuz.covidapp.domain.Exposure;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Repository for persisting exposures
@@ -13,26 +18,160 @@ import org.springframework.transaction.annotation.Transactional;
  */
 public interface ExposureRepository extends CrudRepository<Exposure, String>, JpaSpecificationExecutor<Exposure> {
 
+	String EXPORT_SOURCE = "Exposure e JOIN e.regionSet r";
+
+	String EXPORT_CONDITION = "r = :region AND e.createdAt < :createdBefore AND e.intervalNumber < :until"
+			+ " AND ((e.diagnosisType = 'red-warning' AND e.intervalNumber >= :sinceRed) OR (e.diagnosisType = 'yellow-warning' AND e.intervalNumber >= :sinceYellow))";
+
+	String CHANGED_CONDITION = " AND (e.createdAt >= :changedSince OR e.updatedAt >= :changedSince)";
+
+	String CREATED_CONDITION = " AND e.createdAt >= :createdSince";
+
 	/**
-	 * finds exposures for a region in order to export them
-	 * @param since since
-	 * @param until until
-	 * @param diagnosisType diagnosis type
+	 * Counts the exposures to be exported for a region grouped by interval number
+	 * and finds the latest creation or update timestamp of every interval number
+	 * @param sinceRed first interval number of red warnings
+	 * @param sinceYellow first interval number of yellow warnings
+	 * @param until until (exclusive)
 	 * @param region region
+	 * @param createdBefore only exposures created before are counted
+	 * @return triples of interval number, count and last change
+	 */
+	@Query("SELECT e.intervalNumber, COUNT(e), MAX(COALESCE(e.updatedAt, e.createdAt)) FROM " + EXPORT_SOURCE + " WHERE " + EXPORT_CONDITION + " GROUP BY e.intervalNumber")
+	List<Object[]> countForExport(@Param("sinceRed") Integer sinceRed, @Param("sinceYellow") Integer sinceYellow, @Param("until") Integer until, @Param("region") String region, @Param("createdBefore") LocalDateTime createdBefore);
+
+	/**
+	 * Finds the next page of exposures to be exported for a region ordered by interval number and key
+	 * @param sinceRed first interval number of red warnings
+	 * @param sinceYellow first interval number of yellow warnings
+	 * @param until until (exclusive)
+	 * @param region region
+	 * @param createdBefore only exposures created before are returned
+	 * @param lastIntervalNumber interval number of the last exposure of the previous page
+	 * @param lastExposureKey key of the last exposure of the previous page
+	 * @param pageable size of the page
 	 * @return 
 	 */
-	List<Exposure> findByIntervalNumberGreaterThanEqualAndIntervalNumberLessThanAndDiagnosisTypeAndRegionsLike(Integer since, Integer until, String diagnosisType, String region);
-	
-	
+	@Query("SELECT e FROM " + EXPORT_SOURCE + " WHERE " + EXPORT_CONDITION
+			+ " AND (e.intervalNumber > :lastIntervalNumber OR (e.intervalNumber = :lastIntervalNumber AND e.exposureKey > :lastExposureKey))"
+			+ " ORDER BY e.intervalNumber, e.exposureKey")
+	List<Exposure> findForExport(@Param("sinceRed") Integer sinceRed, @Param("sinceYellow") Integer sinceYellow, @Param("until") Integer until, @Param("region") String region, @Param("createdBefore") LocalDateTime createdBefore,
+			@Param("lastIntervalNumber") Integer lastIntervalNumber, @Param("lastExposureKey") String lastExposureKey, Pageable pageable);
+
+	/**
+	 * Counts the exposures to be exported for a region that were created or updated since a timestamp grouped by interval number
+	 * @param sinceRed first interval number of red warnings
+	 * @param sinceYellow first interval number of yellow warnings
+	 * @param until until (exclusive)
+	 * @param region region
+	 * @param createdBefore only exposures created before are counted
+	 * @param changedSince only exposures created or updated since are counted
+	 * @return pairs of interval number and count
+	 */
+	@Query("SELECT e.intervalNumber, COUNT(e) FROM " + EXPORT_SOURCE + " WHERE " + EXPORT_CONDITION + CHANGED_CONDITION + " GROUP BY e.intervalNumber")
+	List<Object[]> countChangedForExport(@Param("sinceRed") Integer sinceRed, @Param("sinceYellow") Integer sinceYellow, @Param("until") Integer until, @Param("region") String region, @Param("createdBefore") LocalDateTime createdBefore,
+			@Param("changedSince") LocalDateTime changedSince);
+
+	/**
+	 * Finds the next page of exposures to be exported for a region that were created or updated since a timestamp
+	 * ordered by interval number and key
+	 * @param sinceRed first interval number of red warnings
+	 * @param sinceYellow first interval number of yellow warnings
+	 * @param until until (exclusive)
+	 * @param region region
+	 * @param createdBefore only exposures created before are returned
+	 * @param changedSince only exposures created or updated since are returned
+	 * @param lastIntervalNumber interval number of the last exposure of the previous page
+	 * @param lastExposureKey key of the last exposure of the previous page
+	 * @param pageable size of the page
+	 * @return 
+	 */
+	@Query("SELECT e FROM " + EXPORT_SOURCE + " WHERE " + EXPORT_CONDITION + CHANGED_CONDITION
+			+ " AND (e.intervalNumber > :lastIntervalNumber OR (e.intervalNumber = :lastIntervalNumber AND e.exposureKey > :lastExposureKey))"
+			+ " ORDER BY e.intervalNumber, e.exposureKey")
+	List<Exposure> findChangedForExport(@Param("sinceRed") Integer sinceRed, @Param("sinceYellow") Integer sinceYellow, @Param("until") Integer until, @Param("region") String region, @Param("createdBefore") LocalDateTime createdBefore,
+			@Param("changedSince") LocalDateTime changedSince, @Param("lastIntervalNumber") Integer lastIntervalNumber, @Param("lastExposureKey") String lastExposureKey, Pageable pageable);
 	
 	/**
-	 * Deletes all exposures older than..
+	 * Counts the exposures to be exported for a region that were created in a time range
+	 * @param sinceRed first interval number of red warnings
+	 * @param sinceYellow first interval number of yellow warnings
+	 * @param until until (exclusive)
+	 * @param region region
+	 * @param createdBefore only exposures created before are counted
+	 * @param createdSince only exposures created since are counted
+	 * @return number of exposures
+	 */
+	@Query("SELECT COUNT(e) FROM " + EXPORT_SOURCE + " WHERE " + EXPORT_CONDITION + CREATED_CONDITION)
+	long countCreatedForExport(@Param("sinceRed") Integer sinceRed, @Param("sinceYellow") Integer sinceYellow, @Param("until") Integer until, @Param("region") String region, @Param("createdBefore") LocalDateTime createdBefore,
+			@Param("createdSince") LocalDateTime createdSince);
+
+	/**
+	 * Finds the next page of exposures to be exported for a region that were created in a time range
+	 * ordered by interval number and key
+	 * @param sinceRed first interval number of red warnings
+	 * @param sinceYellow first interval number of yellow warnings
+	 * @param until until (exclusive)
+	 * @param region region
+	 * @param createdBefore only exposures created before are returned
+	 * @param createdSince only exposures created since are returned
+	 * @param lastIntervalNumber interval number of the last exposure of the previous page
+	 * @param lastExposureKey key of the last exposure of the previous page
+	 * @param pageable size of the page
+	 * @return 
+	 */
+	@Query("SELECT e FROM " + EXPORT_SOURCE + " WHERE " + EXPORT_CONDITION + CREATED_CONDITION
+			+ " AND (e.intervalNumber > :lastIntervalNumber OR (e.intervalNumber = :lastIntervalNumber AND e.exposureKey > :lastExposureKey))"
+			+ " ORDER BY e.intervalNumber, e.exposureKey")
+	List<Exposure> findCreatedForExport(@Param("sinceRed") Integer sinceRed, @Param("sinceYellow") Integer sinceYellow, @Param("until") Integer until, @Param("region") String region, @Param("createdBefore") LocalDateTime createdBefore,
+			@Param("createdSince") LocalDateTime createdSince, @Param("lastIntervalNumber") Integer lastIntervalNumber, @Param("lastExposureKey") String lastExposureKey, Pageable pageable);
+
+	/**
+	 * Finds the next page of exposures without normalised regions ordered by exposure key
+	 * @param lastExposureKey key of the last exposure of the previous page
+	 * @param pageable size of the page
+	 * @return 
+	 */
+	@Query("SELECT e FROM Exposure e WHERE e.regionSet IS EMPTY AND e.regions IS NOT NULL AND e.exposureKey > :lastExposureKey ORDER BY e.exposureKey")
+	List<Exposure> findWithoutRegionSet(@Param("lastExposureKey") String lastExposureKey, Pageable pageable);
+
+	/**
+	 * Finds the next page of exposures created since a timestamp without normalised regions ordered by exposure key,
+	 * e.g. stored by an instance running an older version
+	 * @param createdSince only exposures created since are returned
+	 * @param lastExposureKey key of the last exposure of the previous page
+	 * @param pageable size of the page
+	 * @return 
+	 */
+	@Query("SELECT e FROM Exposure e WHERE e.createdAt >= :createdSince AND e.regionSet IS EMPTY AND e.regions IS NOT NULL AND e.exposureKey > :lastExposureKey ORDER BY e.exposureKey")
+	List<Exposure> findCreatedWithoutRegionSet(@Param("createdSince") LocalDateTime createdSince, @Param("lastExposureKey") String lastExposureKey, Pageable pageable);
+
+	/**
+	 * Finds the keys of a chunk of exposures older than..
 	 * @param intervalNumber interval number
 	 * @param region region
+	 * @param pageable size of the chunk
 	 * @return 
 	 */
-	//TODO - delete query with condition would perform better
-    @Transactional
-	List<Exposure> deleteAllByIntervalNumberIsLessThanAndRegionsLike(int intervalNumber, String region);
+	@Query("SELECT e.exposureKey FROM " + EXPORT_SOURCE + " WHERE r = :region AND e.intervalNumber < :intervalNumber")
+	List<String> findKeysForCleanup(@Param("intervalNumber") Integer intervalNumber, @Param("region") String region, Pageable pageable);
+
+	/**
+	 * Deletes the normalised regions of exposures
+	 * @param exposureKeys keys of the exposures
+	 * @return number of deleted rows
+	 */
+	@Modifying
+	@Query(value = "DELETE FROM exposure_region WHERE exposure_key IN (:exposureKeys)", nativeQuery = true)
+	int deleteRegionsByExposureKeys(@Param("exposureKeys") Collection<String> exposureKeys);
+
+	/**
+	 * Deletes exposures without loading them
+	 * @param exposureKeys keys of the exposures
+	 * @return number of deleted exposures
+	 */
+	@Modifying
+	@Query("DELETE FROM Exposure e WHERE e.exposureKey IN (:exposureKeys)")
+	int deleteByExposureKeys(@Param("exposureKeys") Collection<String> exposureKeys);
 	
 }
@@ -0,0 +1,11 @@
+package at.roteskreuz.covidapp.repository;
+
+import at.roteskreuz.covidapp.domain.Migration;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Repository for persisting the completed data migrations
+ */
+public interface MigrationRepository extends CrudRepository<Migration, String> {
+
+}
@@ -2,16 +2,23 @@ package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.domain.AuthorizedApp;
 import at.roteskreuz.covidapp.repository.AuthorizedAppRepository;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 /**
- * Service class to manage authorized apps 
+ * Service class to manage authorized apps.
+ * The apps are kept in memory and reloaded periodically, so the validation of
+ * publish requests does not hit the database.
  * 
  * @author Zoltán Puskai
  */
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class AuthorizedAppService {
 	
 	public static final String IOS_DEVICE = "ios";
@@ -19,12 +26,33 @@ public class AuthorizedAppService {
 	
 	private final AuthorizedAppRepository authorizedAppRepository;
 
+	private volatile Map<String, AuthorizedApp> authorizedApps;
+
 	/**
 	 * Finds an authorized app by id
 	 * @param id
 	 * @return 
 	 */
 	public AuthorizedApp findById(String id) {
-		return authorizedAppRepository.findById(id).orElse(null);
+		Map<String, AuthorizedApp> apps = authorizedApps;
+		if (apps == null) {
+			apps = load();
+		}
+		return id == null ? null : apps.get(id);
+	}
+
+	/**
+	 * Reloads the authorized apps from the database
+	 */
+	public void refresh() {
+		load();
+	}
+
+	private synchronized Map<String, AuthorizedApp> load() {
+		Map<String, AuthorizedApp> apps = new HashMap<>();
+		authorizedAppRepository.findAll().forEach(app -> apps.put(app.getAppPackageName(), app));
+		authorizedApps = Collections.unmodifiableMap(apps);
+		log.debug(String.format("Loaded %d authorized apps", apps.size()));
+		return authorizedApps;
 	}
 }
@@ -4,18 +4,21 @@ import at.roteskreuz.covidapp.blobstore.Blobstore;
 import at.roteskreuz.covidapp.config.ApplicationConfig;
 import at.roteskreuz.covidapp.domain.ExportConfig;
 import at.roteskreuz.covidapp.domain.ExportFile;
-import at.roteskreuz.covidapp.domain.Exposure;
 import at.roteskreuz.covidapp.exception.LockNotAcquiredException;
 import at.roteskreuz.covidapp.model.ApiResponse;
 import at.roteskreuz.covidapp.model.ExportFileStatus;
 import at.roteskreuz.covidapp.properties.ExportProperties;
 import at.roteskreuz.covidapp.repository.ExportConfigRepository;
 import at.roteskreuz.covidapp.repository.ExportFileRepository;
+import at.roteskreuz.covidapp.repository.ExportWindowStateRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -36,10 +39,12 @@ public class CleanupService {
 
 	private final ExposureService exposureService;
 	private final ExportFileRepository exportFileRepository;
+	private final ExportWindowStateRepository exportWindowStateRepository;
 	private final Blobstore blobstore;
 	private final LockService lockService;
 	private final ExportProperties exportProperties;
 	private final ExportConfigRepository exportConfigRepository;
+	private final MeterRegistry meterRegistry;
 
 	/**
 	 * Cleans up old files older
@@ -54,9 +59,11 @@ public class CleanupService {
 			LocalDateTime now = LocalDateTime.now();
 
 			List<ExportConfig> exportConfigs = exportConfigRepository.findAllByDate(now);
+			long start = System.nanoTime();
 			for (ExportConfig exportConfig : exportConfigs) {
 				cleanupConfig(exportConfig);
 			}
+			meterRegistry.timer("cleanup.duration").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 			log.info(String.format("Processed %s configs.", exportConfigs.size()));
 			boolean unlocked = lockService.releaseLock(lockId, releaseTimestamp);
 			log.debug(String.format("Removed lock for id: %s with result: %b", lockId, unlocked));
@@ -76,19 +83,25 @@ public class CleanupService {
 		LocalDateTime deletionDate = getCutOffDate(config.getPeriodOfKeepingFiles(), MIN_CLEANUP_FILES_TTL);
 		//select directories that are older than deletionDate
 		List<ExportFile> files = exportFileRepository.findByConfigAndTimestampLessThanAndStatusIsNot(config, deletionDate.toEpochSecond(ZoneOffset.UTC), ExportFileStatus.EXPORT_FILE_DELETED);
+		//the windows referring to the deleted files can not be reused any more
+		exportWindowStateRepository.deleteAll(exportWindowStateRepository.findByConfigAndUpdatedAtBefore(config, deletionDate));
 
-		for (ExportFile file : files) {
-			blobstore.deleteObject(config.getBucketName(), file.getFilename());
-			file.setStatus(ExportFileStatus.EXPORT_FILE_DELETED);
-			exportFileRepository.save(file);
+		if (files.isEmpty()) {
+			return;
 		}
+		int deleted = blobstore.deleteObjects(config.getBucketName(), files.stream().map(ExportFile::getFilename).collect(Collectors.toList()));
+		files.forEach(file -> file.setStatus(ExportFileStatus.EXPORT_FILE_DELETED));
+		exportFileRepository.saveAll(files);
+		meterRegistry.counter("cleanup.files.deleted", "config", String.valueOf(config.getId())).increment(deleted);
+		log.info(String.format("%d of %d files deleted for config %d", deleted, files.size(), config.getId()));
 	}
 
 	private void cleanupExposures(ExportConfig config) {
 		LocalDateTime deletionDate = getCutOffDate(config.getExposureCleanupPeriod(), MIN_CLEANUP_EXPOSURE_TTL);
 		long intervalNumber = deletionDate.toInstant(ZoneOffset.UTC).getEpochSecond() / ApplicationConfig.INTERVAL_LENGTH.getSeconds();
-		List<Exposure> delExposures = exposureService.cleanUpExposures((int) intervalNumber, config.getRegion());
-		log.info(String.format("%d Exposures deleted for config %d", delExposures == null ? 0 : delExposures.size(), config.getId()));
+		long deleted = exposureService.cleanUpExposures((int) intervalNumber, config.getRegion(), exportProperties.getCleanupChunkSize());
+		meterRegistry.counter("cleanup.exposures.deleted", "config", String.valueOf(config.getId())).increment(deleted);
+		log.info(String.format("%d Exposures deleted for config %d", deleted, config.getId()));
 	}
 
 	private LocalDateTime getCutOffDate(Duration cleanupTtl, Duration minimumDuration) {
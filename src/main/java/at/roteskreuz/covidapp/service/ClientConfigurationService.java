@@ -1,10 +1,20 @@
 package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.domain.ClientConfiguration;
+import at.roteskreuz.covidapp.model.EncodedClientConfiguration;
 import at.roteskreuz.covidapp.repository.ClientConfigurationRepository;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 import lombok.RequiredArgsConstructor;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 /**
@@ -14,25 +24,94 @@ import org.springframework.stereotype.Service;
  */
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ClientConfigurationService {
 
+	private static final Long CONFIGURATION_ID = 1L;
+
 	private final ClientConfigurationRepository repository;
+	private final Sha256Service sha256Service;
+
+	private final AtomicReference<CachedConfiguration> current = new AtomicReference<>();
 	
 	/**
-	 * Returns (and caches) the current client configuration
+	 * Returns the cached current client configuration
 	 * 
 	 * @return client configuration 
 	 */
-	@Cacheable(cacheNames = "configuration")
 	public ClientConfiguration getConfiuration() {
-		return repository.findById(1L).orElse(null);
+		return getCurrent().configuration;
+	}
+
+	/**
+	 * Returns the cached current client configuration encoded for the HTTP responses,
+	 * so the body, the compressed body and the ETag are computed once per configuration
+	 * 
+	 * @return encoded client configuration or null if there is no configuration
+	 */
+	public EncodedClientConfiguration getEncodedConfiguration() {
+		return getCurrent().encoded;
 	}
 
 	
 	/**
-	 * Flushes the client configuration cache
+	 * Reloads the client configuration if its creation date changed.
+	 * Only the creation date is read when the configuration did not change,
+	 * the readers keep using the cached configuration until the new one replaces it.
+	 * 
+	 * @return true if the configuration was reloaded
 	 */
-	@CacheEvict(allEntries = true, cacheNames = "configuration")
-	public void flushCache() {
+	public synchronized boolean refresh() {
+		LocalDateTime dateCreated = repository.findDateCreatedById(CONFIGURATION_ID);
+		CachedConfiguration cached = current.get();
+		if (cached != null && Objects.equals(cached.dateCreated, dateCreated)) {
+			return false;
+		}
+		ClientConfiguration configuration = repository.findById(CONFIGURATION_ID).orElse(null);
+		current.set(configuration == null
+				? new CachedConfiguration(null, null, null)
+				: new CachedConfiguration(configuration.getDateCreated(), configuration, encode(configuration)));
+		log.info(String.format("Client configuration loaded, created at: %s", configuration == null ? null : configuration.getDateCreated()));
+		return true;
+	}
+
+	private CachedConfiguration getCurrent() {
+		CachedConfiguration cached = current.get();
+		if (cached == null) {
+			refresh();
+			cached = current.get();
+		}
+		return cached;
+	}
+
+	private EncodedClientConfiguration encode(ClientConfiguration configuration) {
+		byte[] data = configuration.getData() == null ? new byte[0] : configuration.getData().getBytes(StandardCharsets.UTF_8);
+		byte[] gzipData = gzip(data);
+		String etag = "\"" + sha256Service.sha256(configuration.getData() == null ? "" : configuration.getData()) + "\"";
+		long lastModified = configuration.getDateCreated().toInstant(ZoneOffset.UTC).toEpochMilli();
+		return new EncodedClientConfiguration(data, gzipData.length < data.length ? gzipData : null, etag, lastModified);
+	}
+
+	private byte[] gzip(byte[] data) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		//compressed once per configuration, the best compression is worth it
+		try (GZIPOutputStream gzip = new GZIPOutputStream(output) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			gzip.write(data);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return output.toByteArray();
+	}
+
+	@RequiredArgsConstructor
+	private static class CachedConfiguration {
+
+		private final LocalDateTime dateCreated;
+		private final ClientConfiguration configuration;
+		private final EncodedClientConfiguration encoded;
 	}
 }
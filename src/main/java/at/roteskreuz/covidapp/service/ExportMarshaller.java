@@ -0,0 +1,217 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.blobstore.BlobWriter;
+import at.roteskreuz.covidapp.domain.Exposure;
+import at.roteskreuz.covidapp.domain.SignatureInfo;
+import at.roteskreuz.covidapp.properties.ExportProperties;
+import at.roteskreuz.covidapp.protobuf.Export;
+import at.roteskreuz.covidapp.protobuf.Export.TemporaryExposureKey;
+import at.roteskreuz.covidapp.protobuf.Export.TemporaryExposureKeyExport;
+import at.roteskreuz.covidapp.sign.Signer;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.util.StringUtils;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Converts exposures into signed and compressed export files.
+ * This is the CPU intensive part of the export, it does not access the database or the blobstore.
+ * The marshalling and the signing times are recorded as export.batch.* metrics.
+ */
+@Service
+public class ExportMarshaller {
+
+	private static final String EXPORT_BINARY_NAME = "export.bin";
+	private static final byte[] EXPORT_HEADER = "EK Export v1    ".getBytes(StandardCharsets.US_ASCII);
+	private static final String EXPORT_SIGNATURE_NAME = "export.sig";
+	private static final String ALGORITHM = "1.2.840.10045.4.3.2";
+
+	private final Signer signer;
+	private final ExportProperties exportProperties;
+	private final Timer marshalTimer;
+	private final Timer signTimer;
+
+	/**
+	 * Creates the marshaller and registers its metrics
+	 *
+	 * @param signer signer of the export binaries
+	 * @param exportProperties export related configuration
+	 * @param meterRegistry registry of the metrics
+	 */
+	public ExportMarshaller(Signer signer, ExportProperties exportProperties, MeterRegistry meterRegistry) {
+		this.signer = signer;
+		this.exportProperties = exportProperties;
+		this.marshalTimer = Timer.builder("export.batch.marshal")
+				.description("Time of creating the export binary of a batch")
+				.register(meterRegistry);
+		this.signTimer = Timer.builder("export.batch.sign")
+				.description("Time of signing the export binary of a batch")
+				.tag("signer", signer.getClass().getSimpleName())
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Creates the export binary and its signature,
+	 * the returned writer compresses them into an archive.
+	 *
+	 * @param region exported region
+	 * @param startTimestamp start timestamp of the export
+	 * @param endTimestamp end timestamp of the export
+	 * @param exposures exposures to be exported, the list is sorted by the exposure key
+	 * @param batchNum batch number
+	 * @param batchSize batch size
+	 * @param exportSigners signers to sign exported data
+	 * @return writer of the compressed archive
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public BlobWriter marshalExportFile(String region, LocalDateTime startTimestamp, LocalDateTime endTimestamp, List<Exposure> exposures, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws IOException, GeneralSecurityException {
+		// create main exposure key export binary
+		byte[] expContents = marshalContents(region, startTimestamp, endTimestamp, exposures, batchNum, batchSize, exportSigners);
+		// create signature file
+		byte[] sigContents = marshalSignature(expContents, batchNum, batchSize, exportSigners);
+
+		// create compressed archive of binary and signature
+		int zipLevel = exportProperties.getZipLevel();
+		return output -> {
+			// the output stream is closed by the blobstore
+			try (ZipOutputStream zos = new ZipOutputStream(StreamUtils.nonClosing(output))) {
+				zos.setLevel(zipLevel);
+				ZipEntry binEntry = new ZipEntry(EXPORT_BINARY_NAME);
+				binEntry.setSize(expContents.length);
+				zos.putNextEntry(binEntry);
+				zos.write(expContents);
+				zos.closeEntry();
+
+				ZipEntry sigEntry = new ZipEntry(EXPORT_SIGNATURE_NAME);
+				sigEntry.setSize(sigContents.length);
+				zos.putNextEntry(sigEntry);
+				zos.write(sigContents);
+				zos.closeEntry();
+			}
+		};
+	}
+
+	/**
+	 * Creates the export binary: the header followed by the serialized TemporaryExposureKeyExport
+	 *
+	 * @param region exported region
+	 * @param startTimestamp start timestamp of the export
+	 * @param endTimestamp end timestamp of the export
+	 * @param exposures exposures to be exported, the list is sorted by the exposure key
+	 * @param batchNum batch number
+	 * @param batchSize batch size
+	 * @param exportSigners signers to sign exported data
+	 * @return export binary
+	 * @throws IOException
+	 */
+	public byte[] marshalContents(String region, LocalDateTime startTimestamp, LocalDateTime endTimestamp, List<Exposure> exposures, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return marshalExportBinary(region, startTimestamp, endTimestamp, exposures, batchNum, batchSize, exportSigners);
+		} finally {
+			marshalTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private byte[] marshalExportBinary(String region, LocalDateTime startTimestamp, LocalDateTime endTimestamp, List<Exposure> exposures, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws IOException {
+		exposures.sort(Comparator.comparing(c -> c.getExposureKey()));
+		List<TemporaryExposureKey> temporaryExposureKeys = new ArrayList<>(exposures.size());
+
+		exposures.forEach(exp -> {
+			TemporaryExposureKey.Builder exposureKeyBuilder = TemporaryExposureKey.newBuilder()
+					.setKeyData(ByteString.copyFrom(Base64.getDecoder().decode(exp.getExposureKey().getBytes())))
+					.setTransmissionRiskLevel(exp.getTransmissionRisk());
+			if (exp.getIntervalNumber() != null) {
+				exposureKeyBuilder.setRollingStartIntervalNumber(exp.getIntervalNumber());
+			}
+			if (exp.getIntervalCount() != null) {
+				exposureKeyBuilder.setRollingPeriod(exp.getIntervalCount());
+			}
+			temporaryExposureKeys.add(exposureKeyBuilder.build());
+		});
+
+		List<Export.SignatureInfo> signatures = new ArrayList<>();
+		exportSigners.forEach(si -> signatures.add(signatureInfo(si)));
+
+		TemporaryExposureKeyExport.Builder exposureKeyExportBuilder = TemporaryExposureKeyExport.newBuilder()
+				.setStartTimestamp(startTimestamp.toEpochSecond(ZoneOffset.UTC))
+				.setEndTimestamp(endTimestamp.toEpochSecond(ZoneOffset.UTC))
+				.setRegion(region)
+				.setBatchNum(batchNum)
+				.setBatchSize(batchSize)
+				.addAllKeys(temporaryExposureKeys)
+				.addAllSignatureInfos(signatures);
+
+		TemporaryExposureKeyExport exposureKeyExport = exposureKeyExportBuilder.build();
+		// serialize into an array of the exact size instead of a growing buffer
+		byte[] output = new byte[EXPORT_HEADER.length + exposureKeyExport.getSerializedSize()];
+		System.arraycopy(EXPORT_HEADER, 0, output, 0, EXPORT_HEADER.length);
+		CodedOutputStream cos = CodedOutputStream.newInstance(output, EXPORT_HEADER.length, output.length - EXPORT_HEADER.length);
+		exposureKeyExport.writeTo(cos);
+		cos.checkNoSpaceLeft();
+		return output;
+	}
+
+	/**
+	 * Signs the export binary and creates the signature file
+	 *
+	 * @param exportContents export binary
+	 * @param batchNum batch number
+	 * @param batchSize batch size
+	 * @param exportSigners signers to sign exported data
+	 * @return signature file
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] marshalSignature(byte[] exportContents, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws IOException, GeneralSecurityException {
+		List<Export.TEKSignature> signatures = new ArrayList<>();
+		long start = System.nanoTime();
+		byte[] signature;
+		try {
+			signature = signer.sign(exportContents);
+		} finally {
+			signTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+
+		for (SignatureInfo si : exportSigners) {
+			Export.TEKSignature teks = Export.TEKSignature.newBuilder()
+					.setSignatureInfo(signatureInfo(si))
+					.setBatchNum(batchNum)
+					.setBatchSize(batchSize)
+					.setSignature(ByteString.copyFrom(signature))
+					.build();
+			signatures.add(teks);
+		}
+		Export.TEKSignatureList signatureList = Export.TEKSignatureList.newBuilder().addAllSignatures(signatures).build();
+		return signatureList.toByteArray();
+	}
+
+	private Export.SignatureInfo signatureInfo(SignatureInfo si) {
+		Export.SignatureInfo.Builder signatureInfoBuilder = Export.SignatureInfo.newBuilder()
+				.setSignatureAlgorithm(ALGORITHM);
+		if (StringUtils.isNotEmpty(si.getSigningKeyVersion())) {
+			signatureInfoBuilder.setVerificationKeyVersion(si.getSigningKeyVersion());
+		}
+		if (StringUtils.isNotEmpty(si.getSigningKeyID())) {
+			signatureInfoBuilder.setVerificationKeyId(si.getSigningKeyID());
+		}
+		return signatureInfoBuilder.build();
+	}
+
+}
@@ -4,26 +4,26 @@ import at.roteskreuz.covidapp.blobstore.Blobstore;
 import at.roteskreuz.covidapp.config.ApplicationConfig;
 import at.roteskreuz.covidapp.domain.ExportConfig;
 import at.roteskreuz.covidapp.domain.ExportFile;
+import at.roteskreuz.covidapp.domain.ExportWindowState;
 import at.roteskreuz.covidapp.domain.Exposure;
 import at.roteskreuz.covidapp.domain.SignatureInfo;
 import at.roteskreuz.covidapp.exception.LockNotAcquiredException;
 import at.roteskreuz.covidapp.model.ApiResponse;
 import at.roteskreuz.covidapp.model.ExportFileStatus;
+import at.roteskreuz.covidapp.model.ExportSummary;
+import at.roteskreuz.covidapp.model.ExportWindow;
 import at.roteskreuz.covidapp.model.IndexFile;
 import at.roteskreuz.covidapp.model.IndexFileBatch;
 import at.roteskreuz.covidapp.properties.ExportProperties;
-import at.roteskreuz.covidapp.protobuf.Export;
-import at.roteskreuz.covidapp.protobuf.Export.TemporaryExposureKey;
-import at.roteskreuz.covidapp.protobuf.Export.TemporaryExposureKeyExport;
 import at.roteskreuz.covidapp.repository.ExportConfigRepository;
 import at.roteskreuz.covidapp.repository.ExportFileRepository;
-import at.roteskreuz.covidapp.sign.Signer;
+import at.roteskreuz.covidapp.repository.ExportWindowStateRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.protobuf.ByteString;
-import io.micrometer.core.instrument.util.StringUtils;
-import java.io.ByteArrayOutputStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.io.IOException;
 import java.security.*;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -32,14 +32,22 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 /**
@@ -53,9 +61,9 @@ import org.springframework.stereotype.Service;
 public class ExportService {
 
 	private static final String FILENAME_SUFFIX = ".zip";
-	private static final String EXPORT_BINARY_NAME = "export.bin";
-	private static final String EXPORT_SIGNATURE_NAME = "export.sig";
-	private static final String ALGORITHM = "1.2.840.10045.4.3.2";
+	private static final String INDEX_FILENAME = "index.json";
+	private static final String DELTA_FILE_PREFIX = "batch_delta";
+	private static final String WINDOW_FILE_PREFIX = "batch_window";
 
 	private final ExportProperties exportProperties;
 	private final ExposureService exposureService;
@@ -64,151 +72,104 @@ public class ExportService {
 	private final ObjectMapper objectMapper;
 	private final ExportConfigRepository exportConfigRepository;
 	private final ExportFileRepository exportFileRepository;
-	private final Signer signer;
+	private final ExportWindowStateRepository exportWindowStateRepository;
+	private final Sha256Service sha256Service;
+	private final TimeCalculationService timeCalculationService;
+	private final ExportMarshaller exportMarshaller;
 	private final CleanupService cleanupService;
+	private final MigrationService migrationService;
+	private final ThreadPoolTaskExecutor exportExecutor;
+	private final ThreadPoolTaskExecutor exportBatchExecutor;
+	private final MeterRegistry meterRegistry;
 
 	/**
-	 * Exports files for every valid export configuration
+	 * Exports files for every valid export configuration.
+	 * The configurations are exported in parallel, each of them under its own lock.
 	 *
 	 * @return
 	 * @throws Exception
 	 */
 	public ApiResponse export() throws Exception {
-		String lockId = "export_files";
-		try {
-			LocalDateTime releaseTimestamp = lockService.acquireLock(lockId, exportProperties.getCreateTimeout());
-			LocalDateTime now = LocalDateTime.now();
-
-			List<ExportConfig> exportConfigs = exportConfigRepository.findAllByDate(now);
-			for (ExportConfig exportConfig : exportConfigs) {
-				exportConfig(exportConfig);
-			}
-			log.info(String.format("Processed %s configs.", exportConfigs.size()));
-			boolean unlocked = lockService.releaseLock(lockId, releaseTimestamp);
-			log.debug(String.format("Removed lock for id: %s with result: %b", lockId, unlocked));
-		} catch (LockNotAcquiredException e) {
-			log.error("Could not acquire lock for exporting files");
-			//fail silently
-		}
+		exportConfigs(false);
 		//cleanup exposures and files
 		return cleanupService.cleanup();
 	}
 
 	/**
-	 * Converts the inputs into an encoded byte array.
+	 * Exports the new window batches for every valid export configuration.
+	 * The daily and full batches of the previous export are reused, only the finalised windows
+	 * that were not exported yet and the delta batch are written, so it can run every few minutes.
+	 * A config whose daily and full batches were not exported yet (e.g. after midnight) is exported fully.
 	 *
-	 * @param region exported region
-	 * @param startTimestamp start timestamp of the export
-	 * @param endTimestamp end timestamp of the export
-	 * @param exposures exposures to be exported
-	 * @param batchNum batch number
-	 * @param batchSize batch size
-	 * @param exportSigners signers to sign exported data
 	 * @return
-	 * @throws IOException
-	 * @throws GeneralSecurityException
+	 * @throws Exception
 	 */
-	//MarshalExportFile converts the inputs into an encoded byte array.	
-	private byte[] marshalExportFile(String region, LocalDateTime startTimestamp, LocalDateTime endTimestamp, List<Exposure> exposures, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws IOException, GeneralSecurityException {
-		// create main exposure key export binary
-		byte[] expContents = marshalContents(region, startTimestamp, endTimestamp, exposures, batchNum, batchSize, exportSigners);
-		// create signature file
-		byte[] sigContents = marshalSignature(expContents, batchNum, batchSize, exportSigners);
-
-		// create compressed archive of binary and signature
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-			ZipEntry binEntry = new ZipEntry(EXPORT_BINARY_NAME);
-			binEntry.setSize(expContents.length);
-			zos.putNextEntry(binEntry);
-			zos.write(expContents);
-			zos.closeEntry();
-
-			ZipEntry sigEntry = new ZipEntry(EXPORT_SIGNATURE_NAME);
-			sigEntry.setSize(sigContents.length);
-			zos.putNextEntry(sigEntry);
-			zos.write(sigContents);
-			zos.closeEntry();
+	public ApiResponse exportWindows() throws Exception {
+		if (!exportProperties.isWindowBatches()) {
+			log.debug("Window batches are disabled");
+			return ApiResponse.ok();
 		}
-		return baos.toByteArray();
+		exportConfigs(true);
+		return ApiResponse.ok();
 	}
 
-	private byte[] marshalContents(String region, LocalDateTime startTimestamp, LocalDateTime endTimestamp, List<Exposure> exposures, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws IOException {
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
-		output.write("EK Export v1    ".getBytes());
+	private void exportConfigs(boolean windowsOnly) throws InterruptedException {
+		//the exports only see the exposures with normalised regions
+		migrationService.migrateRecentRegions();
+		LocalDateTime now = LocalDateTime.now();
 
-		exposures.sort(Comparator.comparing(c -> c.getExposureKey()));
-		List<TemporaryExposureKey> temporaryExposureKeys = new ArrayList<>();
-
-		exposures.forEach(exp -> {
-			TemporaryExposureKey.Builder exposureKeyBuilder = TemporaryExposureKey.newBuilder()
-					.setKeyData(ByteString.copyFrom(Base64.getDecoder().decode(exp.getExposureKey().getBytes())))
-					.setTransmissionRiskLevel(exp.getTransmissionRisk());
-			if (exp.getIntervalNumber() != null) {
-				exposureKeyBuilder.setRollingStartIntervalNumber(exp.getIntervalNumber());
-			}
-			if (exp.getIntervalCount() != null) {
-				exposureKeyBuilder.setRollingPeriod(exp.getIntervalCount());
-			}
-			temporaryExposureKeys.add(exposureKeyBuilder.build());
-		});
-
-		List<Export.SignatureInfo> signatures = new ArrayList<>();
-		exportSigners.forEach(si -> {
-			Export.SignatureInfo.Builder signatureBuilder = Export.SignatureInfo.newBuilder()
-					.setSignatureAlgorithm(ALGORITHM);
-			if (StringUtils.isNotEmpty(si.getSigningKeyVersion())) {
-				signatureBuilder.setVerificationKeyVersion(si.getSigningKeyVersion());
-			}
-			if (StringUtils.isNotEmpty(si.getSigningKeyID())) {
-				signatureBuilder.setVerificationKeyId(si.getSigningKeyID());
+		List<ExportConfig> exportConfigs = exportConfigRepository.findAllByDate(now);
+		Map<ExportConfig, Future<Boolean>> results = new LinkedHashMap<>();
+		for (ExportConfig exportConfig : exportConfigs) {
+			results.put(exportConfig, exportExecutor.submit(() -> exportConfigWithLock(exportConfig, windowsOnly)));
+		}
+		int processed = 0;
+		//the worker timeout applies to the whole run, the configs are exported in parallel
+		long deadline = System.nanoTime() + exportProperties.getWorkerTimeout().toNanos();
+		for (Map.Entry<ExportConfig, Future<Boolean>> result : results.entrySet()) {
+			try {
+				if (result.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+					processed++;
+				}
+			} catch (ExecutionException e) {
+				log.error(String.format("Export of config %s failed", result.getKey().getId()), e.getCause());
+			} catch (TimeoutException e) {
+				//a queued export is not started any more, a running one is interrupted and releases its lock
+				result.getValue().cancel(true);
+				log.error(String.format("Export of config %s did not finish in %s, it is cancelled", result.getKey().getId(), exportProperties.getWorkerTimeout()));
 			}
-			signatures.add(signatureBuilder.build());
-		});
-
-		TemporaryExposureKeyExport.Builder exposureKeyExportBuilder = TemporaryExposureKeyExport.newBuilder()
-				.setStartTimestamp(startTimestamp.toEpochSecond(ZoneOffset.UTC))
-				.setEndTimestamp(endTimestamp.toEpochSecond(ZoneOffset.UTC))
-				.setRegion(region)
-				.setBatchNum(batchNum)
-				.setBatchSize(batchSize)
-				.addAllKeys(temporaryExposureKeys)
-				.addAllSignatureInfos(signatures);
-
-		TemporaryExposureKeyExport exposureKeyExport = exposureKeyExportBuilder.build();
-		exposureKeyExport.writeTo(output);
-		return output.toByteArray();
+		}
+		log.info(String.format("Processed %s of %s configs.", processed, exportConfigs.size()));
 	}
 
-	private byte[] marshalSignature(byte[] exportContents, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws IOException, GeneralSecurityException {
-		List<Export.TEKSignature> signatures = new ArrayList<>();
-		byte[] signature = signer.sign(exportContents);
-
-		for (SignatureInfo si : exportSigners) {
-			Export.SignatureInfo.Builder signatureInfoBuilder = Export.SignatureInfo.newBuilder()
-					.setSignatureAlgorithm(ALGORITHM);
-			if (StringUtils.isNotEmpty(si.getSigningKeyVersion())) {
-				signatureInfoBuilder.setVerificationKeyVersion(si.getSigningKeyVersion());
-			}
-			if (StringUtils.isNotEmpty(si.getSigningKeyID())) {
-				signatureInfoBuilder.setVerificationKeyId(si.getSigningKeyID());
-			}
-
-			Export.TEKSignature teks = Export.TEKSignature.newBuilder()
-					.setSignatureInfo(signatureInfoBuilder.build())
-					.setBatchNum(batchNum)
-					.setBatchSize(batchSize)
-					.setSignature(ByteString.copyFrom(signature))
-					.build();
-			signatures.add(teks);
+	private boolean exportConfigWithLock(ExportConfig config, boolean windowsOnly) throws Exception {
+		String lockId = "export_files:" + config.getId();
+		LocalDateTime releaseTimestamp;
+		try {
+			releaseTimestamp = lockService.acquireLock(lockId, exportProperties.getCreateTimeout());
+		} catch (LockNotAcquiredException e) {
+			log.info(String.format("Could not acquire lock for exporting files of config %s", config.getId()));
+			//fail silently, another node is exporting this config
+			return false;
 		}
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
-		Export.TEKSignatureList signatureList = Export.TEKSignatureList.newBuilder().addAllSignatures(signatures).build();
-		signatureList.writeTo(output);
-		return output.toByteArray();
+		long start = System.nanoTime();
+		String outcome = "failure";
+		try {
+			exportConfig(config, windowsOnly);
+			outcome = "success";
+		} finally {
+			boolean unlocked = lockService.releaseLock(lockId, releaseTimestamp);
+			log.debug(String.format("Removed lock for id: %s with result: %b", lockId, unlocked));
+			Timer.builder("export.config")
+					.description("Duration of exporting the files of a config")
+					.tags("config", String.valueOf(config.getId()), "mode", windowsOnly ? "windows" : "full", "outcome", outcome)
+					.register(meterRegistry)
+					.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		return true;
 	}
 
-	private void exportConfig(ExportConfig config) throws Exception {
+	private void exportConfig(ExportConfig config, boolean windowsOnly) throws Exception {
 		//create the new export files
 		LocalDateTime fileDate = LocalDateTime.now();
 
@@ -216,101 +177,354 @@ public class ExportService {
 		LocalDateTime startOfToday = LocalDate.now().atStartOfDay();
 		LocalDateTime fromYellow = startOfToday.minus(config.getPeriodYellowWarnings());
 		LocalDateTime fromRed = startOfToday.minus(config.getPeriodRedWarnings());
-		LocalDateTime until = startOfToday;
-		if (exportProperties.isExportCurrentDay()) {
-			until = LocalDateTime.now();
+		LocalDateTime until = exportProperties.isExportCurrentDay() ? LocalDateTime.now() : startOfToday;
+		// Load the non-expired signature infos associated with this export batch. - in our case we already have them, just have to filter them	
+		List<SignatureInfo> sigInfos = config.getSignatureInfos().stream().filter(si -> si.getEndTimestamp() == null || !si.getEndTimestamp().isBefore(LocalDateTime.now())).collect(Collectors.toList());
+
+		//the delta window contains the exposures created or updated since the previous export, they are found by their arrival time.
+		//The timestamps are set before the exposures are committed, so the window starts the commit lag before the previous export,
+		//an exposure committed later than that after its timestamp is only contained in the full and daily batches
+		ExportWindow deltaWindow = null;
+		Optional<ExportFile> previousIndexFile = exportFileRepository.findFirstByConfigAndFilenameEndingWithOrderByTimestampDesc(config, "/" + INDEX_FILENAME);
+		if (previousIndexFile.isPresent()) {
+			LocalDateTime changedSince = LocalDateTime.ofEpochSecond(previousIndexFile.get().getTimestamp(), 0, ZoneOffset.UTC).minus(exportProperties.getDeltaCommitLag());
+			//the exposures dropped from the previous delta are written again
+			Optional<ExportWindowState> deltaState = exportWindowStateRepository.findById(deltaStateId(config));
+			if (deltaState.isPresent() && deltaState.get().getUpdatedAt().isBefore(changedSince)) {
+				changedSince = deltaState.get().getUpdatedAt();
+			}
+			log.info(String.format("Creating delta export file for changes since: %s", changedSince.format(DateTimeFormatter.ofPattern("yyyy.MM.dd. HH:mm:ss"))));
+			Map<Integer, Long> deltaCounts = exposureService.countChangedExposuresForExport(fromRed, fromYellow, until, config.getRegion(), fileDate, changedSince);
+			deltaWindow = new ExportWindow(DELTA_FILE_PREFIX, changedSince, fileDate, Math.min(getIntervalNumber(fromRed), getIntervalNumber(fromYellow)), getIntervalNumber(until), deltaCounts, exportProperties.getMaxRecords());
+		}
+
+		//the export of the window batches takes the daily and full batches of the previous export as they are,
+		//it does not need the summary of the exposures as long as all of them can be reused
+		List<ExportWindow> windows = createWindows(fileDate, config, startOfToday, until, Collections.emptyMap());
+		boolean reuseAll = windowsOnly;
+		if (windowsOnly) {
+			windows.forEach(window -> reuseWindow(fileDate, config, window, false));
+			if (windows.stream().anyMatch(w -> !w.isReused())) {
+				//e.g. after midnight, before the export of the new day wrote the windows
+				log.info(String.format("Windows of config %s were not exported yet, exporting all windows", config.getId()));
+				reuseAll = false;
+			}
+		}
+		if (!reuseAll) {
+			//the number of batches of every window has to be known before the first file is written
+			ExportSummary summary = exposureService.summarizeExposuresForExport(fromRed, fromYellow, until, config.getRegion(), fileDate);
+			windows = createWindows(fileDate, config, startOfToday, until, summary.getCounts());
+			//windows whose exposures did not change since the previous export keep their batch files
+			for (ExportWindow window : windows) {
+				//the windows reaching into the current day end at the time of the export, their end timestamp changes with every run
+				boolean openEnd = window.getEndTimestamp().isAfter(startOfToday);
+				window.setFingerprint(fingerprint(config, window, summary, sigInfos, openEnd));
+				if (windowsOnly || exportProperties.isIncremental()) {
+					reuseWindow(fileDate, config, window, true);
+				}
+			}
 		}
-		List<Exposure> redExposures = exposureService.findExposuresForExport(fromRed, until, "red-warning", config.getRegion());
-		List<Exposure> yellowExposures = exposureService.findExposuresForExport(fromYellow, until, "yellow-warning", config.getRegion());
-		List<Exposure> allExposures = new ArrayList<>();
-		allExposures.addAll(redExposures);
-		allExposures.addAll(yellowExposures);
-		
-		
+		ExportWindow fullBigWindow = windows.get(0);
+		ExportWindow fullMediumWindow = windows.get(1);
+		List<ExportWindow> dailyWindows = new ArrayList<>(windows.subList(2, windows.size()));
+		List<ExportWindow> arrivalWindows = exportProperties.isWindowBatches() ? createArrivalWindows(fileDate, config, fromRed, fromYellow, until, sigInfos) : null;
+
+		//read the exposures once, ordered by interval number, and send each of them into every window containing it
+		if (windows.stream().anyMatch(w -> !w.isReused())) {
+			exportPages(fileDate, config, windows, sigInfos,
+					(last, pageSize) -> exposureService.findExposuresForExport(fromRed, fromYellow, until, config.getRegion(), fileDate, last, pageSize));
+		}
+		//the delta and the arrival windows are read separately through the arrival time index, they are usually a small part of the exposures
+		if (deltaWindow != null) {
+			LocalDateTime changedSince = deltaWindow.getStartTimestamp();
+			exportPages(fileDate, config, Collections.singletonList(deltaWindow), sigInfos,
+					(last, pageSize) -> exposureService.findChangedExposuresForExport(fromRed, fromYellow, until, config.getRegion(), fileDate, changedSince, last, pageSize));
+			windows.add(deltaWindow);
+		}
+		if (arrivalWindows != null) {
+			for (ExportWindow window : arrivalWindows) {
+				if (!window.isReused()) {
+					exportPages(fileDate, config, Collections.singletonList(window), sigInfos,
+							(last, pageSize) -> exposureService.findCreatedExposuresForExport(fromRed, fromYellow, until, config.getRegion(), window.getStartTimestamp(), window.getEndTimestamp(), last, pageSize));
+				}
+			}
+			windows.addAll(arrivalWindows);
+		}
+
+		for (ExportWindow window : windows) {
+			if (!window.isReused()) {
+				finishWindow(fileDate, config, window, sigInfos);
+			}
+		}
+		//wait for the batch files in batch order, after a failure the files of the other windows are still collected
+		Exception failure = null;
+		for (ExportWindow window : windows) {
+			if (!window.isReused()) {
+				try {
+					collectBatchFiles(fileDate, config, window);
+				} catch (Exception e) {
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+					continue;
+				}
+				//the delta window has no fingerprint, it is never reused,
+				//a window that dropped exposures is written again by the next export
+				if (window.getFingerprint() != null && window.getDropped() == 0) {
+					exportWindowStateRepository.save(new ExportWindowState(windowStateId(config, window), config, window.getFingerprint(), new ArrayList<>(window.getObjectNames()), fileDate));
+				}
+				meterRegistry.counter("export.keys", "config", String.valueOf(config.getId()), "window", window.getFilePrefix()).increment(window.getCount());
+			}
+			meterRegistry.counter("export.windows", "config", String.valueOf(config.getId()), "outcome", window.isReused() ? "reused" : "written").increment();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		indexFile.setFullBigBatch(new IndexFileBatch(fullBigWindow.getStartIntervalNumber(), batchFilePaths(config, fullBigWindow)));
+		indexFile.setFullMediumBatch(new IndexFileBatch(fullMediumWindow.getStartIntervalNumber(), batchFilePaths(config, fullMediumWindow)));
+		indexFile.setDailyBatches(dailyWindows.stream().map(w -> new IndexFileBatch(w.getStartIntervalNumber(), batchFilePaths(config, w))).collect(Collectors.toList()));
+		if (arrivalWindows != null) {
+			indexFile.setWindowBatches(arrivalWindows.stream().map(w -> new IndexFileBatch(w.getStartIntervalNumber(), batchFilePaths(config, w))).collect(Collectors.toList()));
+		}
+		if (deltaWindow != null) {
+			indexFile.setDeltaBatch(new IndexFileBatch(getIntervalNumber(deltaWindow.getStartTimestamp()), batchFilePaths(config, deltaWindow)));
+		}
+
+		//createIndexFile
+		String indexFileContent = objectMapper.writeValueAsString(indexFile);
+		String indexFileName = createIndexFile(fileDate, config, indexFileContent.getBytes());
+		exportFileRepository.save(new ExportFile(indexFileName, config.getBucketName(), config, config.getRegion(), fileDate.toEpochSecond(ZoneOffset.UTC), ExportFileStatus.EXPORT_FILE_CREATED));
+		if (deltaWindow != null) {
+			saveDeltaState(config, deltaWindow);
+		}
+
+		//Copy over the index file;
+		String commonIndexFileName = commonIndexFilename(config);
+		blobstore.copy(config.getBucketName(), indexFileName, commonIndexFileName);
+		log.info(String.format("Config %s completed", config.getId()));
+	}
+
+	/**
+	 * Creates the full big, the full medium and the daily windows in this order
+	 */
+	private List<ExportWindow> createWindows(LocalDateTime fileDate, ExportConfig config, LocalDateTime startOfToday, LocalDateTime until, Map<Integer, Long> counts) {
+		List<ExportWindow> windows = new ArrayList<>();
 		LocalDateTime bigFileSartDate = startOfToday.minus(config.getPeriodOfBigFile());
-		long startIntervalNumberBig = getIntervalNumber(bigFileSartDate);
-		long endIntervalNumberBig = getIntervalNumber(until);
 		log.info(String.format("Creating full export file with start date: %s for period of days: %d", bigFileSartDate.format(DateTimeFormatter.ofPattern("yyyy.MM.dd.")), config.getPeriodOfBigFile().toDays()));
-		List<Exposure> fullExportBigExposures = allExposures.stream().filter(s -> s.getIntervalNumber() >= startIntervalNumberBig && s.getIntervalNumber() < endIntervalNumberBig).collect(Collectors.toList());
-		List<String> fullExportBigFilenames = exportExposures("batch_full" + config.getPeriodOfBigFile().toDays(), fileDate, config, startOfToday, until, startIntervalNumberBig, fullExportBigExposures);
-		indexFile.setFullBigBatch(new IndexFileBatch(startIntervalNumberBig, fullExportBigFilenames));
+		windows.add(new ExportWindow("batch_full" + config.getPeriodOfBigFile().toDays(), startOfToday, until, getIntervalNumber(bigFileSartDate), getIntervalNumber(until), counts, exportProperties.getMaxRecords()));
 
-		
 		LocalDateTime mediumFileSartDate = startOfToday.minus(config.getPeriodOfMediumFile());
-		long startIntervalNumberMedium = getIntervalNumber(mediumFileSartDate);
-		long endIntervalNumberMedium = getIntervalNumber(until);
 		log.info(String.format("Creating full export file with start date: %s for period of days: %d", mediumFileSartDate.format(DateTimeFormatter.ofPattern("yyyy.MM.dd.")), config.getPeriodOfMediumFile().toDays()));
-		List<Exposure> fullExportMediumExposures = allExposures.stream().filter(s -> s.getIntervalNumber() >= startIntervalNumberMedium && s.getIntervalNumber() < endIntervalNumberMedium).collect(Collectors.toList());
-		List<String> fullExportMediumFilenames = exportExposures("batch_full" + config.getPeriodOfMediumFile().toDays(), fileDate, config, startOfToday, until, startIntervalNumberMedium, fullExportMediumExposures);
-		indexFile.setFullMediumBatch(new IndexFileBatch(startIntervalNumberMedium, fullExportMediumFilenames));
-
+		windows.add(new ExportWindow("batch_full" + config.getPeriodOfMediumFile().toDays(), startOfToday, until, getIntervalNumber(mediumFileSartDate), getIntervalNumber(until), counts, exportProperties.getMaxRecords()));
 
-		indexFile.setDailyBatches(new ArrayList<>());
 		LocalDateTime date = startOfToday.minus(config.getPeriodOfDailyFiles());
 		while (date.isBefore(until)) {
 			long startIntervalNumber = getIntervalNumber(date);
 			long endIntervalNumber = getIntervalNumber(date.plusDays(1));
-			List<Exposure> exposuresForDate = allExposures.stream().filter(s -> s.getIntervalNumber() >= startIntervalNumber && s.getIntervalNumber() < endIntervalNumber).collect(Collectors.toList());
 			log.info("Creating daily export file with start date: " + date.format(DateTimeFormatter.ofPattern("yyyy.MM.dd.")));
 			log.trace("Creating file for intervals: " + startIntervalNumber + " - " + endIntervalNumber);
 			LocalDateTime endDate = date.plusDays(1);
 			if (endDate.isAfter(fileDate)) {
 				endDate = fileDate;
 			}
-			List<String> dailyExportFilenames = exportExposures("batch", fileDate, config, date, endDate, startIntervalNumber, exposuresForDate);
-			indexFile.getDailyBatches().add(new IndexFileBatch(startIntervalNumber, dailyExportFilenames));
+			windows.add(new ExportWindow("batch", date, endDate, startIntervalNumber, endIntervalNumber, counts, exportProperties.getMaxRecords()));
 			date = date.plusDays(1);
 		}
-		//createIndexFile
-		String indexFileContent = objectMapper.writeValueAsString(indexFile);
-		String indexFileName = createIndexFile(fileDate, config, indexFileContent.getBytes());
-		exportFileRepository.save(new ExportFile(indexFileName, config.getBucketName(), config, config.getRegion(), fileDate.toEpochSecond(ZoneOffset.UTC), ExportFileStatus.EXPORT_FILE_CREATED));
-
-		//Copy over the index file;
-		String commonIndexFileName = commonIndexFilename(config);
-		blobstore.copy(config.getBucketName(), indexFileName, commonIndexFileName);
-		log.info(String.format("Config %s completed", config.getId()));
+		return windows;
 	}
 
-	private List<String> exportExposures(String filePrefix, LocalDateTime fileDate, ExportConfig config, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long intervalNumber, List<Exposure> exposuresToExport) throws NoSuchAlgorithmException, Exception {
+	/**
+	 * Creates the arrival windows of the window period aligned to the truncate window.
+	 * Only windows older than the minimum window age are created, no exposure arrives into them any more,
+	 * so a window that was already exported is always reused.
+	 */
+	private List<ExportWindow> createArrivalWindows(LocalDateTime fileDate, ExportConfig config, LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, List<SignatureInfo> sigInfos) {
+		Duration truncateWindow = exportProperties.getTruncateWindow();
+		LocalDateTime end = timeCalculationService.truncateToDuration(fileDate.minus(exportProperties.getMinWindowAge()), truncateWindow);
+		List<ExportWindow> arrivalWindows = new ArrayList<>();
+		for (LocalDateTime start = end.minus(exportProperties.getWindowPeriod()); start.isBefore(end); start = start.plus(truncateWindow)) {
+			LocalDateTime windowEnd = start.plus(truncateWindow);
+			ExportWindow window = ExportWindow.ofArrival(WINDOW_FILE_PREFIX, start, windowEnd, getIntervalNumber(start), getIntervalNumber(windowEnd), 0, exportProperties.getMaxRecords());
+			String fingerprint = fingerprint(config, window, null, sigInfos, false);
+			window.setFingerprint(fingerprint);
+			reuseWindow(fileDate, config, window, true);
+			if (!window.isReused()) {
+				long count = exposureService.countCreatedExposuresForExport(fromRed, fromYellow, until, config.getRegion(), start, windowEnd);
+				window = ExportWindow.ofArrival(WINDOW_FILE_PREFIX, start, windowEnd, getIntervalNumber(start), getIntervalNumber(windowEnd), count, exportProperties.getMaxRecords());
+				window.setFingerprint(fingerprint);
+			}
+			arrivalWindows.add(window);
+		}
+		return arrivalWindows;
+	}
 
-		List<Exposure> exposures = new ArrayList<>();
-		List<List<Exposure>> groups = new ArrayList<>();
+	/**
+	 * Reads the exposures page by page and sends them into the windows
+	 */
+	private void exportPages(LocalDateTime fileDate, ExportConfig config, List<ExportWindow> windows, List<SignatureInfo> sigInfos, BiFunction<Exposure, Integer, List<Exposure>> pageReader) {
+		Exposure last = null;
+		List<Exposure> page;
+		do {
+			page = pageReader.apply(last, exportProperties.getReadPageSize());
+			exportPage(fileDate, config, windows, page, sigInfos);
+			if (!page.isEmpty()) {
+				last = page.get(page.size() - 1);
+			}
+		} while (page.size() == exportProperties.getReadPageSize());
+	}
 
-		for (Exposure exposure : exposuresToExport) {
-			exposures.add(exposure);
-			if (exposures.size() == exportProperties.getMaxRecords()) {
-				groups.add(exposures);
-				exposures = new ArrayList<>();
+	/**
+	 * Sends each exposure of a page into every window containing it and exports the full groups
+	 */
+	private void exportPage(LocalDateTime fileDate, ExportConfig config, List<ExportWindow> windows, List<Exposure> page, List<SignatureInfo> sigInfos) {
+		for (Exposure exposure : page) {
+			for (ExportWindow window : windows) {
+				if (!window.isReused() && window.contains(exposure.getIntervalNumber())) {
+					if (window.add(exposure) && window.isGroupFull()) {
+						exportGroup(fileDate, config, window, window.nextGroup(), sigInfos);
+					}
+				}
 			}
 		}
-		// Create a group for any remaining keys.
-		if (!exposures.isEmpty()) {
-			groups.add(exposures);
+	}
+
+	/**
+	 * Reuses the batch files of the previous export if the fingerprint of the window did not change
+	 * (or it is not checked) and none of its files were deleted. The reused files get the timestamp of the current export,
+	 * so they are not cleaned up as long as an index file refers to them.
+	 */
+	private void reuseWindow(LocalDateTime fileDate, ExportConfig config, ExportWindow window, boolean checkFingerprint) {
+		Optional<ExportWindowState> state = exportWindowStateRepository.findById(windowStateId(config, window));
+		if (!state.isPresent() || (checkFingerprint && !window.getFingerprint().equals(state.get().getFingerprint()))) {
+			return;
+		}
+		List<String> objectNames = state.get().getObjectNames();
+		List<ExportFile> files = new ArrayList<>();
+		exportFileRepository.findAllById(objectNames).forEach(files::add);
+		if (files.size() != objectNames.size() || files.stream().anyMatch(f -> f.getStatus() == ExportFileStatus.EXPORT_FILE_DELETED)) {
+			return;
+		}
+		files.forEach(f -> f.setTimestamp(fileDate.toEpochSecond(ZoneOffset.UTC)));
+		exportFileRepository.saveAll(files);
+		state.get().setUpdatedAt(fileDate);
+		exportWindowStateRepository.save(state.get());
+		window.reuse(objectNames);
+		log.info(String.format("Reusing %d export files of %s-%d for config %s", objectNames.size(), window.getFilePrefix(), window.getStartIntervalNumber(), config.getId()));
+	}
+
+	/**
+	 * Creates the fingerprint of a window from everything that is written into its batch files:
+	 * the timestamps, the export settings, the signatures and the number and last change of the exposures per interval number.
+	 * The end timestamp of an open window is the time of the export, it is left out so that the window is reused
+	 * as long as its exposures do not change, the reused batch files keep the end timestamp of the export that wrote them.
+	 * The exposures of a finalised arrival window do not change, its fingerprint does not depend on them.
+	 */
+	private String fingerprint(ExportConfig config, ExportWindow window, ExportSummary summary, List<SignatureInfo> sigInfos, boolean openEnd) {
+		StringBuilder content = new StringBuilder()
+				.append(config.getRegion()).append('|').append(window.getStartTimestamp()).append('|').append(openEnd ? "open" : window.getEndTimestamp())
+				.append('|').append(exportProperties.getMaxRecords()).append('|').append(exportProperties.getMinRecords())
+				.append('|').append(exportProperties.getPaddingRange()).append('|').append(exportProperties.getZipLevel());
+		sigInfos.forEach(si -> content.append('|').append(si.getId()).append(':').append(si.getSigningKeyID()).append(':').append(si.getSigningKeyVersion()));
+		if (window.isByArrival()) {
+			return sha256Service.sha256(content.toString());
+		}
+		summary.getCounts().keySet().stream()
+				.filter(intervalNumber -> window.contains(intervalNumber))
+				.sorted()
+				.forEach(intervalNumber -> content.append('|').append(intervalNumber).append(':').append(summary.getCounts().get(intervalNumber)).append(':').append(summary.getLastChanges().get(intervalNumber)));
+		return sha256Service.sha256(content.toString());
+	}
+
+	private String windowStateId(ExportConfig config, ExportWindow window) {
+		return String.format("%d:%s:%d", config.getId(), window.getFilePrefix(), window.getStartIntervalNumber());
+	}
+
+	private String deltaStateId(ExportConfig config) {
+		return String.format("%d:%s", config.getId(), DELTA_FILE_PREFIX);
+	}
+
+	/**
+	 * Keeps the earliest change of the exposures dropped from the delta window, the next delta starts there.
+	 * The state is only updated after the index file was written, a failed export keeps the start of its delta.
+	 */
+	private void saveDeltaState(ExportConfig config, ExportWindow deltaWindow) {
+		String id = deltaStateId(config);
+		if (deltaWindow.getDropped() > 0) {
+			exportWindowStateRepository.save(new ExportWindowState(id, config, null, new ArrayList<>(), deltaWindow.getFirstDroppedChange()));
+		} else if (exportWindowStateRepository.existsById(id)) {
+			exportWindowStateRepository.deleteById(id);
 		}
-		List<String> objectNames = new ArrayList<>();
-		if (groups.isEmpty()) {
+	}
+
+	private void finishWindow(LocalDateTime fileDate, ExportConfig config, ExportWindow window, List<SignatureInfo> sigInfos) throws Exception {
+		if (!window.getGroup().isEmpty()) {
+			// Create a group for any remaining keys.
+			List<Exposure> group = window.nextGroup();
+			ensureMinNumExposures(group, config.getRegion(), exportProperties.getMinRecords(), exportProperties.getPaddingRange());
+			exportGroup(fileDate, config, window, group, sigInfos);
+		}
+		if (window.getBatchSize() == 0) {
 			DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyy.MM.dd HH:mm");
-			log.info(String.format("No records for export config %d in the time range %s - %s", config.getId(), startTimestamp.format(dtf), endTimestamp.format(dtf)));
-		} else {
-			ensureMinNumExposures(exposures, config.getRegion(), exportProperties.getMinRecords(), exportProperties.getPaddingRange());
-			// Load the non-expired signature infos associated with this export batch. - in our case we already have them, just have to filter them	
-			List<SignatureInfo> sigInfos = config.getSignatureInfos().stream().filter(si -> si.getEndTimestamp() == null || !si.getEndTimestamp().isBefore(LocalDateTime.now())).collect(Collectors.toList());
-
-			// Create the export files.
-			int batchSize = groups.size();
-			for (int i = 0; i < groups.size(); i++) {
-				List<Exposure> group = groups.get(i);
-				String objectName = createFile(filePrefix, fileDate, config, startTimestamp, endTimestamp, intervalNumber, group, i + 1, batchSize, sigInfos);
-				log.info(String.format("Wrote export file %s for config %s", objectName, config.getId()));
-				objectNames.add(objectName);
+			log.info(String.format("No records for export config %d in the time range %s - %s", config.getId(), window.getStartTimestamp().format(dtf), window.getEndTimestamp().format(dtf)));
+		} else if (window.getBatchNum() < window.getBatchSize()) {
+			log.warn(String.format("Only %d of %d batches were written for %s of config %d, exposures were removed during the export", window.getBatchNum(), window.getBatchSize(), window.getFilePrefix(), config.getId()));
+		}
+		if (window.getDropped() > 0) {
+			//the batch sizes were already written, the exposures stored after they were counted cannot be added,
+			//the next export writes the window again or starts the next delta at the first dropped change
+			log.warn(String.format("%d exposures of %s of config %d were stored after they were counted, they are written by the next export from %s", window.getDropped(), window.getFilePrefix(), config.getId(), window.getFirstDroppedChange()));
+			meterRegistry.counter("export.keys.dropped", "config", String.valueOf(config.getId()), "window", window.getFilePrefix()).increment(window.getDropped());
+		}
+	}
+
+	private void exportGroup(LocalDateTime fileDate, ExportConfig config, ExportWindow window, List<Exposure> group, List<SignatureInfo> sigInfos) {
+		int batchNum = window.getBatchNum();
+		String objectName = exportFilename(window.getFilePrefix(), config, fileDate, window.getStartIntervalNumber(), batchNum);
+		//marshal and sign on the batch executor, the upload continues on the blobstore executor
+		window.getBatchFiles().add(CompletableFuture.supplyAsync(() -> {
+			try {
+				return exportMarshaller.marshalExportFile(config.getRegion(), window.getStartTimestamp(), window.getEndTimestamp(), group, batchNum, window.getBatchSize(), sigInfos);
+			} catch (IOException | GeneralSecurityException e) {
+				throw new CompletionException(e);
+			}
+		}, exportBatchExecutor)
+				.thenCompose(writer -> blobstore.createObjectAsync(config.getBucketName(), objectName, writer))
+				.thenApply(v -> objectName));
+	}
+
+	/**
+	 * Waits for all batch files of a window and saves the written ones, also when another one failed,
+	 * so the cleanup deletes them with the old files. The first failure is rethrown afterwards.
+	 */
+	private void collectBatchFiles(LocalDateTime fileDate, ExportConfig config, ExportWindow window) throws Exception {
+		Exception failure = null;
+		for (Future<String> batchFile : window.getBatchFiles()) {
+			String objectName;
+			try {
+				objectName = batchFile.get();
+			} catch (ExecutionException e) {
+				Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				if (failure == null) {
+					failure = cause;
+				} else {
+					failure.addSuppressed(cause);
+				}
+				continue;
 			}
+			log.info(String.format("Wrote export file %s for config %s", objectName, config.getId()));
+			window.getObjectNames().add(objectName);
+			//Writing file to database
+			exportFileRepository.save(new ExportFile(objectName, config.getBucketName(), config, config.getRegion(), fileDate.toEpochSecond(ZoneOffset.UTC), ExportFileStatus.EXPORT_FILE_CREATED));
 		}
-		//Writing files to database
-		objectNames.forEach((fileName) -> {
-			exportFileRepository.save(new ExportFile(fileName, config.getBucketName(), config, config.getRegion(), fileDate.toEpochSecond(ZoneOffset.UTC), ExportFileStatus.EXPORT_FILE_CREATED));
-		});		
-		return objectNames.stream().map(s -> "/" + config.getBucketName() + "/" + s).collect(Collectors.toList());
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private List<String> batchFilePaths(ExportConfig config, ExportWindow window) {
+		return window.getObjectNames().stream().map(s -> "/" + config.getBucketName() + "/" + s).collect(Collectors.toList());
 	}
 
 	private List<Exposure> ensureMinNumExposures(List<Exposure> exposures, String region, Integer minLength, Integer jitter) throws NoSuchAlgorithmException {
@@ -348,13 +562,6 @@ public class ExportService {
 		return exposures;
 	}
 
-	private String createFile(String filePrefix, LocalDateTime fileDate, ExportConfig config, LocalDateTime startTimestamp, LocalDateTime endTimestamp, Long intervalNumber, List<Exposure> exposures, int batchNum, int batchSize, List<SignatureInfo> exportSigners) throws Exception {
-		String objectName = exportFilename(filePrefix, config, fileDate, intervalNumber, batchNum);
-		byte[] data = marshalExportFile(config.getRegion(), startTimestamp, endTimestamp, exposures, batchNum, batchSize, exportSigners);
-		blobstore.createObject(config.getBucketName(), objectName, data);
-		return objectName;
-	}
-
 	private String exportFilename(String filePrefix, ExportConfig config, LocalDateTime fileDate, Long intervalNumber, int batchNum) {
 		return String.format("%s/%d/%s-%d-%d%s", config.getFilenameRoot(), fileDate.toEpochSecond(ZoneOffset.UTC), filePrefix, intervalNumber, batchNum, FILENAME_SUFFIX);
 	}
@@ -366,11 +573,11 @@ public class ExportService {
 	}
 
 	private String indexFilename(ExportConfig config, LocalDateTime fileDate) {
-		return String.format("%s/%d/%s", config.getFilenameRoot(), fileDate.toEpochSecond(ZoneOffset.UTC), "index.json");
+		return String.format("%s/%d/%s", config.getFilenameRoot(), fileDate.toEpochSecond(ZoneOffset.UTC), INDEX_FILENAME);
 	}
 
 	private String commonIndexFilename(ExportConfig config) {
-		return String.format("%s/%s", config.getFilenameRoot(), "index.json");
+		return String.format("%s/%s", config.getFilenameRoot(), INDEX_FILENAME);
 	}
 	
 	private long getIntervalNumber(LocalDateTime timestamp) {
@@ -2,13 +2,25 @@ package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.config.ApplicationConfig;
 import at.roteskreuz.covidapp.domain.Exposure;
+import at.roteskreuz.covidapp.model.ExportSummary;
 import at.roteskreuz.covidapp.repository.ExposureRepository;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * Service class to manage exposures
@@ -20,7 +32,11 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class ExposureService {
 
+	private static final int MIGRATION_PAGE_SIZE = 1000;
+	private static final Duration RECENT_MIGRATION_PERIOD = Duration.ofDays(1);
+
 	private final ExposureRepository exposureRepository;
+	private final TransactionTemplate transactionTemplate;
 
 	/**
 	 * Saves an exposure
@@ -48,30 +64,273 @@ public class ExposureService {
 	}
 
 	/**
-	 * Finds exposures belonging wit red warnings
+	 * Saves the exposures of a publish request in one transaction.
+	 * The existing exposures are loaded with one select and the new ones are inserted in JDBC batches.
+	 * If another request inserted one of the keys in the meantime, the insert fails on the primary key
+	 * and the exposures are saved once more in a new transaction, which updates the existing ones.
+	 *
+	 * @param exposures exposures to be saved
+	 */
+	public void saveAll(List<Exposure> exposures) {
+		try {
+			transactionTemplate.executeWithoutResult(status -> saveAllInTransaction(exposures));
+		} catch (DataIntegrityViolationException e) {
+			log.info(String.format("Exposures of %d keys were stored concurrently, saving them again", exposures.size()));
+			//the rolled back exposures are inserted again unless they exist now
+			exposures.forEach(exposure -> {
+				exposure.setRegions(exposure.getRegions());
+				exposure.markNew();
+			});
+			transactionTemplate.executeWithoutResult(status -> saveAllInTransaction(exposures));
+		}
+	}
+
+	private void saveAllInTransaction(List<Exposure> exposures) {
+		Map<String, Exposure> existingExposures = new HashMap<>();
+		exposureRepository.findAllById(exposures.stream().map(Exposure::getExposureKey).collect(Collectors.toList()))
+				.forEach(e -> existingExposures.put(e.getExposureKey(), e));
+		List<Exposure> newExposures = new ArrayList<>();
+		for (Exposure exposure : exposures) {
+			Exposure existingExposure = existingExposures.get(exposure.getExposureKey());
+			if (existingExposure != null) {
+				if (existingExposure.getPassword() != null
+						&& existingExposure.getPassword().equals(exposure.getPassword())
+						&& existingExposure.getIntervalNumber().equals(exposure.getIntervalNumber())
+						&& existingExposure.getIntervalCount().equals(exposure.getIntervalCount())) {
+					//checking if update should be made, managed exposures are flushed with the transaction
+					existingExposure.setUpdatedAt(LocalDateTime.now());
+					existingExposure.setDiagnosisType(exposure.getDiagnosisType());
+				} else {
+					//fail silently
+					log.error(String.format("SILENT_FAIL - Exposure with key: %s is not valid", exposure.getExposureKey()));
+				}
+			} else {
+				//the same key might be sent twice in one request
+				existingExposures.put(exposure.getExposureKey(), exposure);
+				newExposures.add(exposure);
+			}
+		}
+		exposureRepository.saveAll(newExposures);
+	}
+
+	/**
+	 * Counts the exposures to be exported grouped by interval number
+	 * and finds the latest change of every interval number
+	 *
+	 * @param fromRed start timestamp of red warnings
+	 * @param fromYellow start timestamp of yellow warnings
+	 * @param until end timestamp
+	 * @param region region
+	 * @param createdBefore only exposures created before are counted
+	 * @return number of exposures and last change per interval number
+	 */
+	public ExportSummary summarizeExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore) {
+		ExportSummary result = new ExportSummary();
+		exposureRepository.countForExport(getIntervalNumber(fromRed), getIntervalNumber(fromYellow), getIntervalNumber(until), region, createdBefore)
+				.forEach(row -> result.add((Integer) row[0], (Long) row[1], toLocalDateTime(row[2])));
+		return result;
+	}
+
+	/**
+	 * Counts the exposures to be exported that were created or updated since a timestamp grouped by interval number
+	 *
+	 * @param fromRed start timestamp of red warnings
+	 * @param fromYellow start timestamp of yellow warnings
+	 * @param until end timestamp
+	 * @param region region
+	 * @param createdBefore only exposures created before are counted
+	 * @param changedSince only exposures created or updated since are counted
+	 * @return number of exposures per interval number
+	 */
+	public Map<Integer, Long> countChangedExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore, LocalDateTime changedSince) {
+		Map<Integer, Long> result = new HashMap<>();
+		exposureRepository.countChangedForExport(getIntervalNumber(fromRed), getIntervalNumber(fromYellow), getIntervalNumber(until), region, createdBefore, changedSince)
+				.forEach(row -> result.put((Integer) row[0], (Long) row[1]));
+		return result;
+	}
+
+	/**
+	 * Counts the exposures to be exported that were created in a time range
+	 *
+	 * @param fromRed start timestamp of red warnings
+	 * @param fromYellow start timestamp of yellow warnings
+	 * @param until end timestamp
+	 * @param region region
+	 * @param createdSince only exposures created since are counted
+	 * @param createdBefore only exposures created before are counted
+	 * @return number of exposures
+	 */
+	public long countCreatedExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdSince, LocalDateTime createdBefore) {
+		return exposureRepository.countCreatedForExport(getIntervalNumber(fromRed), getIntervalNumber(fromYellow), getIntervalNumber(until), region, createdBefore, createdSince);
+	}
+
+	private LocalDateTime toLocalDateTime(Object value) {
+		//depending on the dialect the aggregate is returned as a JDBC timestamp
+		if (value instanceof Timestamp) {
+			return ((Timestamp) value).toLocalDateTime();
+		}
+		return (LocalDateTime) value;
+	}
+
+	/**
+	 * Finds the next page of exposures to be exported ordered by interval number and exposure key
+	 *
+	 * @param fromRed start timestamp of red warnings
+	 * @param fromYellow start timestamp of yellow warnings
+	 * @param until end timestamp
+	 * @param region region
+	 * @param createdBefore only exposures created before are returned
+	 * @param last last exposure of the previous page or null for the first page
+	 * @param pageSize maximum number of exposures returned
+	 * @return
+	 */
+	public List<Exposure> findExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore, Exposure last, int pageSize) {
+		int sinceRed = getIntervalNumber(fromRed);
+		int sinceYellow = getIntervalNumber(fromYellow);
+		Integer lastIntervalNumber = last == null ? Math.min(sinceRed, sinceYellow) - 1 : last.getIntervalNumber();
+		String lastExposureKey = last == null ? "" : last.getExposureKey();
+		return exposureRepository.findForExport(sinceRed, sinceYellow, getIntervalNumber(until), region, createdBefore, lastIntervalNumber, lastExposureKey, PageRequest.of(0, pageSize));
+	}
+
+	/**
+	 * Finds the next page of exposures to be exported that were created or updated since a timestamp
+	 * ordered by interval number and exposure key
 	 *
-	 * @param start start timestamp
-	 * @param end end timestamp
-	 * @param diagnosisType diagnosis type
+	 * @param fromRed start timestamp of red warnings
+	 * @param fromYellow start timestamp of yellow warnings
+	 * @param until end timestamp
 	 * @param region region
+	 * @param createdBefore only exposures created before are returned
+	 * @param changedSince only exposures created or updated since are returned
+	 * @param last last exposure of the previous page or null for the first page
+	 * @param pageSize maximum number of exposures returned
 	 * @return
 	 */
-	public List<Exposure> findExposuresForExport(LocalDateTime start, LocalDateTime end, String diagnosisType, String region) {
+	public List<Exposure> findChangedExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore, LocalDateTime changedSince, Exposure last, int pageSize) {
+		int sinceRed = getIntervalNumber(fromRed);
+		int sinceYellow = getIntervalNumber(fromYellow);
+		Integer lastIntervalNumber = last == null ? Math.min(sinceRed, sinceYellow) - 1 : last.getIntervalNumber();
+		String lastExposureKey = last == null ? "" : last.getExposureKey();
+		return exposureRepository.findChangedForExport(sinceRed, sinceYellow, getIntervalNumber(until), region, createdBefore, changedSince, lastIntervalNumber, lastExposureKey, PageRequest.of(0, pageSize));
+	}
 
-		int since = (int) (start.toInstant(ZoneOffset.UTC).getEpochSecond() / ApplicationConfig.INTERVAL_LENGTH.getSeconds());
-		int until = (int) (end.toInstant(ZoneOffset.UTC).getEpochSecond() / ApplicationConfig.INTERVAL_LENGTH.getSeconds());
-		return exposureRepository.findByIntervalNumberGreaterThanEqualAndIntervalNumberLessThanAndDiagnosisTypeAndRegionsLike(since, until, diagnosisType, "%," + region + ",%");
+	/**
+	 * Finds the next page of exposures to be exported that were created in a time range
+	 * ordered by interval number and exposure key
+	 *
+	 * @param fromRed start timestamp of red warnings
+	 * @param fromYellow start timestamp of yellow warnings
+	 * @param until end timestamp
+	 * @param region region
+	 * @param createdSince only exposures created since are returned
+	 * @param createdBefore only exposures created before are returned
+	 * @param last last exposure of the previous page or null for the first page
+	 * @param pageSize maximum number of exposures returned
+	 * @return
+	 */
+	public List<Exposure> findCreatedExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdSince, LocalDateTime createdBefore, Exposure last, int pageSize) {
+		int sinceRed = getIntervalNumber(fromRed);
+		int sinceYellow = getIntervalNumber(fromYellow);
+		Integer lastIntervalNumber = last == null ? Math.min(sinceRed, sinceYellow) - 1 : last.getIntervalNumber();
+		String lastExposureKey = last == null ? "" : last.getExposureKey();
+		return exposureRepository.findCreatedForExport(sinceRed, sinceYellow, getIntervalNumber(until), region, createdBefore, createdSince, lastIntervalNumber, lastExposureKey, PageRequest.of(0, pageSize));
 	}
 
 	/**
-	 * Deletes exposures that are older than interval number for a region
+	 * Deletes exposures that are older than interval number for a region.
+	 * The exposures are deleted in chunks without loading them, each chunk in its own transaction.
 	 *
 	 * @param intervalNumber interval number
 	 * @param region region
-	 * @return
+	 * @param chunkSize maximum number of exposures deleted in one transaction
+	 * @return number of deleted exposures
+	 */
+	public long cleanUpExposures(int intervalNumber, String region, int chunkSize) {
+		long result = 0;
+		int deleted;
+		do {
+			deleted = transactionTemplate.execute(status -> {
+				List<String> exposureKeys = exposureRepository.findKeysForCleanup(intervalNumber, region, PageRequest.of(0, chunkSize));
+				if (exposureKeys.isEmpty()) {
+					return 0;
+				}
+				exposureRepository.deleteRegionsByExposureKeys(exposureKeys);
+				exposureRepository.deleteByExposureKeys(exposureKeys);
+				return exposureKeys.size();
+			});
+			result += deleted;
+		} while (deleted == chunkSize);
+		return result;
+	}
+
+	/**
+	 * Fills the normalised regions of exposures stored before the regions were normalised.
+	 * Every page is committed in its own transaction, an interrupted migration continues with the remaining exposures.
+	 *
+	 * @return number of migrated exposures
 	 */
-	public List<Exposure> cleanUpExposures(int intervalNumber, String region) {
+	public int migrateRegions() {
+		int result = migrateRegions((lastExposureKey, pageable) -> exposureRepository.findWithoutRegionSet(lastExposureKey, pageable), null);
+		if (result > 0) {
+			log.info(String.format("Regions of %d exposures migrated", result));
+		}
+		return result;
+	}
+
+	/**
+	 * Fills the normalised regions of the exposures created in the last day, which were stored without them
+	 * by an instance running an older version. The export and cleanup queries only see the normalised regions,
+	 * so this runs before every export while older instances may still be storing exposures.
+	 * The migrated exposures are marked as updated, so the next delta batch and the changed windows contain them.
+	 *
+	 * @return number of migrated exposures
+	 */
+	public int migrateRecentRegions() {
+		LocalDateTime createdSince = LocalDateTime.now().minus(RECENT_MIGRATION_PERIOD);
+		int result = migrateRegions((lastExposureKey, pageable) -> exposureRepository.findCreatedWithoutRegionSet(createdSince, lastExposureKey, pageable), LocalDateTime.now());
+		if (result > 0) {
+			log.warn(String.format("Regions of %d exposures stored without normalised regions migrated", result));
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether any exposure is still stored without normalised regions
+	 *
+	 * @return true if an exposure has no normalised regions
+	 */
+	public boolean hasExposuresWithoutRegionSet() {
+		return !exposureRepository.findWithoutRegionSet("", PageRequest.of(0, 1)).isEmpty();
+	}
+
+	private int migrateRegions(BiFunction<String, Pageable, List<Exposure>> finder, LocalDateTime updatedAt) {
+		int result = 0;
+		String lastExposureKey = "";
+		List<Exposure> page;
+		do {
+			String since = lastExposureKey;
+			page = transactionTemplate.execute(status -> {
+				List<Exposure> exposures = finder.apply(since, PageRequest.of(0, MIGRATION_PAGE_SIZE));
+				if (!exposures.isEmpty()) {
+					exposures.forEach(exposure -> {
+						exposure.setRegions(exposure.getRegions());
+						if (updatedAt != null) {
+							exposure.setUpdatedAt(updatedAt);
+						}
+					});
+					exposureRepository.saveAll(exposures);
+				}
+				return exposures;
+			});
+			if (!page.isEmpty()) {
+				result += page.size();
+				lastExposureKey = page.get(page.size() - 1).getExposureKey();
+			}
+		} while (page.size() == MIGRATION_PAGE_SIZE);
+		return result;
+	}
 
-		return exposureRepository.deleteAllByIntervalNumberIsLessThanAndRegionsLike(intervalNumber, "%," + region + ",%");
+	private int getIntervalNumber(LocalDateTime timestamp) {
+		return (int) (timestamp.toInstant(ZoneOffset.UTC).getEpochSecond() / ApplicationConfig.INTERVAL_LENGTH.getSeconds());
 	}
 }
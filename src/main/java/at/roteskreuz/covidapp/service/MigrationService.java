@@ -0,0 +1,83 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.domain.Migration;
+import at.roteskreuz.covidapp.exception.LockNotAcquiredException;
+import at.roteskreuz.covidapp.repository.MigrationRepository;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service for running the data migrations once after the startup.
+ * A migration runs on one instance at a time and is recorded when it completes, so the next startups skip it.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class MigrationService {
+
+	static final String REGIONS_MIGRATION = "regions";
+	private static final Duration LOCK_TTL = Duration.ofHours(1);
+
+	private final MigrationRepository migrationRepository;
+	private final LockService lockService;
+	private final ExposureService exposureService;
+
+	/**
+	 * Runs the data migrations that were not completed yet.
+	 * A failing migration is logged and retried by the next startup, it does not stop the application.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void migrate() {
+		try {
+			if (migrationRepository.existsById(REGIONS_MIGRATION)) {
+				return;
+			}
+			String lockId = "migration-" + REGIONS_MIGRATION;
+			LocalDateTime releaseTimestamp = lockService.acquireLock(lockId, LOCK_TTL);
+			try {
+				exposureService.migrateRegions();
+				//instances running an older version might still be storing exposures without normalised regions
+				if (exposureService.hasExposuresWithoutRegionSet()) {
+					log.warn(String.format("Migration %s is not completed, exposures without normalised regions are still being stored", REGIONS_MIGRATION));
+				} else {
+					migrationRepository.save(new Migration(REGIONS_MIGRATION, LocalDateTime.now()));
+					log.info(String.format("Migration %s completed", REGIONS_MIGRATION));
+				}
+			} finally {
+				boolean unlocked = lockService.releaseLock(lockId, releaseTimestamp);
+				log.debug(String.format("Removed lock for id: %s with result: %b", lockId, unlocked));
+			}
+		} catch (LockNotAcquiredException e) {
+			log.info(String.format("Migration %s is running on another instance", REGIONS_MIGRATION));
+		} catch (RuntimeException e) {
+			log.error(String.format("Migration %s failed, it will be continued by the next startup", REGIONS_MIGRATION), e);
+		}
+	}
+
+	/**
+	 * Fills the normalised regions of the recent exposures stored without them by instances running an older version.
+	 * It runs on one instance at a time, a failure is logged and the exposures are migrated by the next run.
+	 */
+	public void migrateRecentRegions() {
+		String lockId = "migration-recent-" + REGIONS_MIGRATION;
+		try {
+			LocalDateTime releaseTimestamp = lockService.acquireLock(lockId, LOCK_TTL);
+			try {
+				exposureService.migrateRecentRegions();
+			} finally {
+				boolean unlocked = lockService.releaseLock(lockId, releaseTimestamp);
+				log.debug(String.format("Removed lock for id: %s with result: %b", lockId, unlocked));
+			}
+		} catch (LockNotAcquiredException e) {
+			log.debug(String.format("Migration of the recent %s is running on another instance", REGIONS_MIGRATION));
+		} catch (RuntimeException e) {
+			log.error(String.format("Migration of the recent %s failed, it will be continued by the next export", REGIONS_MIGRATION), e);
+		}
+	}
+
+}
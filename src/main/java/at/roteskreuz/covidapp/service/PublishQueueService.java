@@ -0,0 +1,353 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.exception.PublishQueueFullException;
+import at.roteskreuz.covidapp.model.Publish;
+import at.roteskreuz.covidapp.properties.PublishProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+
+/**
+ * Write-behind queue of validated publish requests.
+ * Requests are kept in a bounded in-memory queue and stored in batches by the scheduler.
+ * When a spill directory is configured, requests that do not fit into the queue and the requests
+ * left in the queue on shutdown are written to the disk and stored by the next drains.
+ * A request that can not be stored because of its own data is retried by the next drains and dead-lettered after
+ * the configured number of attempts. Requests failing while the database is unavailable are put back without counting an attempt.
+ */
+@Service
+@Slf4j
+public class PublishQueueService {
+
+	private static final String SPILL_FILE_SUFFIX = ".json";
+	private static final String FAILED_FILE_SUFFIX = ".failed";
+
+	private final PublishProperties publishProperties;
+	private final ObjectMapper objectMapper;
+	private final BlockingDeque<Publish> queue;
+	private final Deque<Publish> retries = new ConcurrentLinkedDeque<>();
+	private final Path spillDirectory;
+	private final Counter acceptedCounter;
+	private final Counter rejectedCounter;
+	private final Counter spilledCounter;
+	private final Counter storedCounter;
+	private final Counter failedCounter;
+	private final Counter deadLetteredCounter;
+	private final Map<Publish, Integer> queuedAttempts = Collections.synchronizedMap(new IdentityHashMap<>());
+	private final Map<Path, Integer> spilledAttempts = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the queue and registers its metrics
+	 *
+	 * @param publishProperties publish related configuration
+	 * @param objectMapper mapper used to spill requests to the disk
+	 * @param meterRegistry registry of the metrics
+	 */
+	public PublishQueueService(PublishProperties publishProperties, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+		this.publishProperties = publishProperties;
+		this.objectMapper = objectMapper;
+		this.queue = new LinkedBlockingDeque<>(publishProperties.getWriteBehindQueueCapacity());
+		this.spillDirectory = publishProperties.getWriteBehindSpillDirectory() == null ? null : Paths.get(publishProperties.getWriteBehindSpillDirectory());
+		Gauge.builder("publish.queue.size", this, PublishQueueService::countQueued)
+				.description("Number of publish requests waiting in memory")
+				.register(meterRegistry);
+		Gauge.builder("publish.queue.remaining.capacity", queue, BlockingDeque::remainingCapacity)
+				.description("Number of publish requests that still fit into the queue")
+				.register(meterRegistry);
+		Gauge.builder("publish.queue.spilled.size", this, PublishQueueService::countSpillFiles)
+				.description("Number of publish requests waiting on the disk")
+				.register(meterRegistry);
+		this.acceptedCounter = meterRegistry.counter("publish.queue.accepted");
+		this.rejectedCounter = meterRegistry.counter("publish.queue.rejected");
+		this.spilledCounter = meterRegistry.counter("publish.queue.spilled");
+		this.storedCounter = meterRegistry.counter("publish.queue.stored");
+		this.failedCounter = meterRegistry.counter("publish.queue.failed");
+		this.deadLetteredCounter = meterRegistry.counter("publish.queue.dead.lettered");
+	}
+
+	/**
+	 * Adds a validated publish request to the queue
+	 *
+	 * @param publish publish request
+	 * @throws PublishQueueFullException if neither the queue nor the spill directory can take the request
+	 */
+	public void enqueue(Publish publish) throws PublishQueueFullException {
+		//the verification data is not needed after the validation
+		publish.setVerificationPayload(null);
+		publish.setDeviceVerificationPayload(null);
+		publish.setPadding(null);
+		if (queue.offer(publish) || spill(publish)) {
+			acceptedCounter.increment();
+			return;
+		}
+		rejectedCounter.increment();
+		throw new PublishQueueFullException(String.format("Publish queue is full, capacity: %d", publishProperties.getWriteBehindQueueCapacity()));
+	}
+
+	/**
+	 * Stores the next batch of queued publish requests.
+	 * The requests are taken from the memory first, the requests put back by the previous drains before the new ones,
+	 * and from the spill directory afterwards.
+	 * If storing the batch fails the requests are stored one by one, the failing requests are put back.
+	 *
+	 * @param store stores the batch
+	 * @return number of stored publish requests
+	 */
+	public int drain(Consumer<List<Publish>> store) {
+		int batchSize = publishProperties.getWriteBehindBatchSize();
+		List<Publish> queued = new ArrayList<>(batchSize);
+		Publish retry;
+		while (queued.size() < batchSize && (retry = retries.pollFirst()) != null) {
+			queued.add(retry);
+		}
+		queue.drainTo(queued, batchSize - queued.size());
+		List<Path> spillFiles = queued.size() < batchSize ? listSpillFiles(batchSize - queued.size()) : Collections.emptyList();
+		List<Publish> batch = new ArrayList<>(queued);
+		List<Path> readSpillFiles = new ArrayList<>(spillFiles.size());
+		for (Path spillFile : spillFiles) {
+			try {
+				batch.add(objectMapper.readValue(spillFile.toFile(), Publish.class));
+				readSpillFiles.add(spillFile);
+			} catch (IOException e) {
+				log.error(String.format("Spilled publish request %s cannot be read, it will be skipped", spillFile), e);
+				moveQuietly(spillFile, spillFile.resolveSibling(spillFile.getFileName() + FAILED_FILE_SUFFIX));
+			}
+		}
+		if (batch.isEmpty()) {
+			return 0;
+		}
+		try {
+			store.accept(batch);
+		} catch (RuntimeException e) {
+			failedCounter.increment();
+			return storeOneByOne(store, batch, queued.size(), readSpillFiles, e);
+		}
+		queued.forEach(queuedAttempts::remove);
+		readSpillFiles.forEach(spilledAttempts::remove);
+		readSpillFiles.forEach(this::deleteQuietly);
+		storedCounter.increment(batch.size());
+		return batch.size();
+	}
+
+	/**
+	 * Stores the requests of a failed batch one by one, so a request that can not be stored does not block the others.
+	 * A failure counts as an attempt of the request if it is caused by the request itself, e.g. a constraint violation,
+	 * or if another request of the drain could be stored. Otherwise the database is most likely unavailable:
+	 * the request is put back without counting the attempt. If no request was stored the failure is rethrown.
+	 *
+	 * @param store stores the batch
+	 * @param batch failed batch, the queued requests followed by the spilled ones
+	 * @param queuedCount number of requests taken from the memory
+	 * @param spillFiles files of the spilled requests
+	 * @param failure failure of the batch
+	 * @return number of stored publish requests
+	 */
+	private int storeOneByOne(Consumer<List<Publish>> store, List<Publish> batch, int queuedCount, List<Path> spillFiles, RuntimeException failure) {
+		Map<Integer, RuntimeException> failed = new LinkedHashMap<>();
+		int stored = 0;
+		if (batch.size() == 1) {
+			failed.put(0, failure);
+		} else {
+			for (int i = 0; i < batch.size(); i++) {
+				try {
+					store.accept(Collections.singletonList(batch.get(i)));
+					stored++;
+					if (i < queuedCount) {
+						queuedAttempts.remove(batch.get(i));
+					} else {
+						spilledAttempts.remove(spillFiles.get(i - queuedCount));
+						deleteQuietly(spillFiles.get(i - queuedCount));
+					}
+				} catch (RuntimeException e) {
+					failed.put(i, e);
+				}
+			}
+		}
+		log.warn(String.format("%d of %d publish requests could not be stored", failed.size(), batch.size()), failure);
+		List<Publish> retry = new ArrayList<>();
+		for (Map.Entry<Integer, RuntimeException> entry : failed.entrySet()) {
+			int i = entry.getKey();
+			Publish publish = batch.get(i);
+			Path spillFile = i < queuedCount ? null : spillFiles.get(i - queuedCount);
+			if (stored == 0 && !isCausedByRequest(entry.getValue())) {
+				//the spill file stays in place, it is read again by the next drain
+				if (spillFile == null) {
+					retry.add(publish);
+				}
+				continue;
+			}
+			int attempts = spillFile == null ? queuedAttempts.merge(publish, 1, Integer::sum) : spilledAttempts.merge(spillFile, 1, Integer::sum);
+			if (attempts < publishProperties.getWriteBehindMaxAttempts()) {
+				if (spillFile == null) {
+					retry.add(publish);
+				}
+			} else {
+				if (spillFile == null) {
+					queuedAttempts.remove(publish);
+				} else {
+					spilledAttempts.remove(spillFile);
+				}
+				deadLetter(publish, spillFile, attempts);
+			}
+		}
+		requeue(retry);
+		storedCounter.increment(stored);
+		if (stored == 0) {
+			throw failure;
+		}
+		return stored;
+	}
+
+	/**
+	 * Checks whether a failure is caused by the data of the request rather than by the unavailability of the database
+	 *
+	 * @param failure failure of storing the request
+	 * @return true if the failure is caused by the request
+	 */
+	private boolean isCausedByRequest(RuntimeException failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof DataIntegrityViolationException) {
+				return true;
+			}
+		}
+		return !(failure instanceof DataAccessException || failure instanceof TransactionException);
+	}
+
+	private void deadLetter(Publish publish, Path spillFile, int attempts) {
+		deadLetteredCounter.increment();
+		if (spillFile != null) {
+			moveQuietly(spillFile, spillFile.resolveSibling(spillFile.getFileName() + FAILED_FILE_SUFFIX));
+			log.error(String.format("Publish request %s could not be stored in %d attempts, it is moved aside", spillFile, attempts));
+		} else if (writeSpillFile(publish, FAILED_FILE_SUFFIX)) {
+			log.error(String.format("Publish request could not be stored in %d attempts, it is written to %s", attempts, spillDirectory));
+		} else {
+			log.error(String.format("Publish request with %d keys of app %s could not be stored in %d attempts, it is dropped",
+					publish.getKeys() == null ? 0 : publish.getKeys().size(), publish.getAppPackageName(), attempts));
+		}
+	}
+
+	/**
+	 * Writes the requests left in the queue to the spill directory
+	 */
+	@PreDestroy
+	public void shutdown() {
+		List<Publish> queued = new ArrayList<>(retries);
+		retries.clear();
+		queue.drainTo(queued);
+		if (queued.isEmpty()) {
+			return;
+		}
+		long spilled = queued.stream().filter(this::spill).count();
+		if (spilled < queued.size()) {
+			log.error(String.format("%d queued publish requests are lost on shutdown", queued.size() - spilled));
+		} else {
+			log.info(String.format("%d queued publish requests spilled on shutdown", spilled));
+		}
+	}
+
+	private void requeue(List<Publish> publishes) {
+		//put back in the original order ahead of the queue, the requests were already accepted,
+		//so they are kept even if new requests filled the queue in the meantime
+		for (int i = publishes.size() - 1; i >= 0; i--) {
+			retries.offerFirst(publishes.get(i));
+		}
+	}
+
+	private boolean spill(Publish publish) {
+		if (!writeSpillFile(publish, SPILL_FILE_SUFFIX)) {
+			return false;
+		}
+		spilledCounter.increment();
+		return true;
+	}
+
+	private boolean writeSpillFile(Publish publish, String suffix) {
+		if (spillDirectory == null) {
+			return false;
+		}
+		String filename = String.format("%013d-%s", System.currentTimeMillis(), UUID.randomUUID());
+		Path temp = spillDirectory.resolve("." + filename + ".tmp");
+		try {
+			Files.createDirectories(spillDirectory);
+			objectMapper.writeValue(temp.toFile(), publish);
+			try {
+				Files.move(temp, spillDirectory.resolve(filename + suffix), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, spillDirectory.resolve(filename + suffix));
+			}
+			return true;
+		} catch (IOException e) {
+			log.error(String.format("Publish request could not be spilled to %s", spillDirectory), e);
+			deleteQuietly(temp);
+			return false;
+		}
+	}
+
+	private List<Path> listSpillFiles(int limit) {
+		if (spillDirectory == null || !Files.isDirectory(spillDirectory)) {
+			return Collections.emptyList();
+		}
+		try (Stream<Path> files = Files.list(spillDirectory)) {
+			//the names start with the spill time, the oldest requests are stored first
+			return files.filter(p -> p.getFileName().toString().endsWith(SPILL_FILE_SUFFIX))
+					.sorted()
+					.limit(limit)
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			log.error(String.format("Spill directory %s cannot be listed", spillDirectory), e);
+			return Collections.emptyList();
+		}
+	}
+
+	private double countQueued() {
+		return queue.size() + retries.size();
+	}
+
+	private double countSpillFiles() {
+		return listSpillFiles(Integer.MAX_VALUE).size();
+	}
+
+	private void moveQuietly(Path source, Path target) {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			log.error(String.format("File %s cannot be moved", source), e);
+		}
+	}
+
+	private void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			log.error(String.format("File %s cannot be deleted", path), e);
+		}
+	}
+}
@@ -1,56 +1,161 @@
 package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.domain.Exposure;
+import at.roteskreuz.covidapp.exception.PublishQueueFullException;
 import at.roteskreuz.covidapp.model.ApiResponse;
 import at.roteskreuz.covidapp.model.Publish;
+import at.roteskreuz.covidapp.properties.PublishProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javax.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 /**
- * Service class that processes publish requests
+ * Service class that processes publish requests.
+ * The accepted keys and the rejected requests are counted as publish.* metrics.
  * 
  * @author Zoltán Puskai
  */
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class PublishService {
 
 	private final ExposureService exposureService;
+	private final PublishQueueService publishQueueService;
+	private final PublishProperties publishProperties;
+	private final ThreadPoolTaskExecutor publishExecutor;
+	private final MeterRegistry meterRegistry;
 
 	/**
 	 * Processes publish requests.
-	 * Saves the exposures from the publish request
+	 * Saves the exposures from the publish request, or queues the request
+	 * if write-behind is enabled
 	 * 
 	 * @param publish publish request
 	 * @return 
+	 * @throws PublishQueueFullException if write-behind is enabled and the queue is full
 	 */
-	public ApiResponse publish(Publish publish) {
+	public ApiResponse publish(Publish publish) throws PublishQueueFullException {
+		int keys = publish.getKeys().size();
+		if (publishProperties.isWriteBehind()) {
+			try {
+				publishQueueService.enqueue(publish);
+			} catch (PublishQueueFullException e) {
+				recordRejection("queue_full");
+				throw e;
+			}
+		} else {
+			storeAll(Collections.singletonList(publish));
+		}
+		meterRegistry.counter("publish.requests").increment();
+		meterRegistry.counter("publish.keys").increment(keys);
+		return ApiResponse.ok();
+	}
+
+	/**
+	 * Counts a rejected publish request
+	 * 
+	 * @param reason reason of the rejection used as tag of the publish.rejected counter
+	 */
+	public void recordRejection(String reason) {
+		meterRegistry.counter("publish.rejected", "reason", reason).increment();
+	}
+
+	/**
+	 * Processes publish requests on the publish executor
+	 * 
+	 * @param publish publish request
+	 * @return future completed with the response
+	 */
+	public CompletableFuture<ApiResponse> publishAsync(Publish publish) {
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return publish(publish);
+				} catch (PublishQueueFullException e) {
+					throw new CompletionException(e);
+				}
+			}, publishExecutor);
+		} catch (TaskRejectedException e) {
+			recordRejection("executor_saturated");
+			CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+			result.completeExceptionally(new PublishQueueFullException("Publish executor is saturated"));
+			return result;
+		}
+	}
+
+	/**
+	 * Saves the exposures of publish requests in one transaction
+	 * 
+	 * @param publishes publish requests
+	 */
+	public void storeAll(List<Publish> publishes) {
 
 		LocalDateTime now = LocalDateTime.now();
 
-		publish.getRegions().replaceAll(String::toUpperCase);
-		String regions = "," + String.join(", ", publish.getRegions()) + ",";
-
-		publish.getKeys().forEach(k -> {
-			exposureService.save(
-				new Exposure(
-					k.getKey(),
-					k.getPassword(),
-					publish.getAppPackageName(),
-					regions,
-					k.getIntervalNumber(),
-					k.getIntervalCount(),
-					now,
-					true,
-					null,
-					publish.getDiagnosisType(),
-					null
-				)
-			);
+		List<Exposure> exposures = new ArrayList<>();
+		publishes.forEach(publish -> {
+			publish.getRegions().replaceAll(String::toUpperCase);
+			String regions = "," + String.join(",", publish.getRegions()) + ",";
+
+			publish.getKeys().forEach(k -> {
+				exposures.add(
+					new Exposure(
+						k.getKey(),
+						k.getPassword(),
+						publish.getAppPackageName(),
+						regions,
+						k.getIntervalNumber(),
+						k.getIntervalCount(),
+						now,
+						true,
+						null,
+						publish.getDiagnosisType(),
+						null
+					)
+				);
+			});
 		});
+		exposureService.saveAll(exposures);
+	}
 
-		return ApiResponse.ok();
+	/**
+	 * Stores the queued publish requests in batches until the queue is empty
+	 * 
+	 * @return number of stored publish requests
+	 */
+	public int drainQueue() {
+		int result = 0;
+		int drained;
+		do {
+			drained = publishQueueService.drain(this::storeAll);
+			result += drained;
+		} while (drained >= publishProperties.getWriteBehindBatchSize());
+		return result;
+	}
+
+	/**
+	 * Stores the queued publish requests before the application stops
+	 */
+	@PreDestroy
+	public void shutdown() {
+		if (publishProperties.isWriteBehind()) {
+			try {
+				log.info(String.format("%d queued publish requests stored on shutdown", drainQueue()));
+			} catch (RuntimeException e) {
+				log.error("Queued publish requests could not be stored on shutdown", e);
+			}
+		}
 	}
 
 }
@@ -7,7 +7,7 @@ import org.springframework.stereotype.Service;
 
 /**
  * Service for flushing the client configuration cache periodically
- * client.configuration.cache.ttl -  the number of milliseconds between 2 calls can be configured in the application.properties
+ * client.config.poll -  the number of milliseconds between 2 checks of the client configuration can be configured in the application.properties
  * 
  * @author Zoltán Puskai
  */
@@ -18,15 +18,21 @@ public class SchedulerService {
 	
 	private final ClientConfigurationService clientConfigService;
 	private final ExportService exportService;
+	private final PublishService publishService;
+	private final AuthorizedAppService authorizedAppService;
 			
 	
 	/**
-	 * Flushes the client configuration cache
+	 * Reloads the cached client configuration if it changed
 	 */
-	@Scheduled(fixedRateString ="${application.schedule.client.config.cache.ttl}", initialDelayString="${application.schedule.client.config.cache.ttl}")
-	public void flushCache() {
-		log.debug("Flushing the client configuration cache");
-		clientConfigService.flushCache();
+	@Scheduled(fixedDelayString ="${application.schedule.client.config.poll}")
+	public void refreshClientConfiguration() {
+		log.debug("Checking the client configuration");
+		try {
+			clientConfigService.refresh();
+		} catch (RuntimeException e) {
+			log.error("Could not check the client configuration, the cached one is kept", e);
+		}
 	}
 	
 	
@@ -35,5 +41,38 @@ public class SchedulerService {
 		log.debug("Exporting files");
 		exportService.export();
 	}
+
+	/**
+	 * Exports the new window batches between the exports of the files
+	 */
+	@Scheduled(cron = "${application.schedule.cron.export.windows}")
+	public void exportWindows() throws Exception {
+		log.debug("Exporting window batches");
+		exportService.exportWindows();
+	}
+
+	/**
+	 * Reloads the authorized apps used by the publish validation
+	 */
+	@Scheduled(fixedRateString = "${application.schedule.authorized.apps.refresh}", initialDelayString = "${application.schedule.authorized.apps.refresh}")
+	public void refreshAuthorizedApps() {
+		log.debug("Refreshing the authorized apps");
+		authorizedAppService.refresh();
+	}
+
+	/**
+	 * Stores the publish requests queued in write-behind mode
+	 */
+	@Scheduled(fixedDelayString = "${application.schedule.publish.queue.drain.delay}")
+	public void drainPublishQueue() {
+		try {
+			int stored = publishService.drainQueue();
+			if (stored > 0) {
+				log.debug(String.format("Stored %d queued publish requests", stored));
+			}
+		} catch (RuntimeException e) {
+			log.error("Could not store the queued publish requests, they will be retried", e);
+		}
+	}
 	
 }
@@ -1,8 +1,20 @@
 package at.roteskreuz.covidapp.service;
 
+import at.roteskreuz.covidapp.exception.TanServiceUnavailableException;
 import at.roteskreuz.covidapp.model.TanRequest;
+import at.roteskreuz.covidapp.properties.TanProperties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.util.StringUtils;
+import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -12,11 +24,18 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 /**
  * Service for interacting with the external TAN service.
  * external personal data storage: ULR, authorization key, authorization value, SHA256 key can be configured in the application.properties
+ * Positive results are cached for a short time, so retries of the same publish do not call the TAN service again.
+ * The calls are guarded by a circuit breaker, the blocking calls also by a bulkhead,
+ * so a degraded TAN service does not block all request threads.
+ * The latency and the outcome of the validations are recorded as tan.validation metrics.
  * 
  * @author Zoltán Puskai
  */
@@ -26,9 +45,31 @@ import org.springframework.web.client.RestTemplate;
 public class TanService {
 
 	private final RestTemplate restTemplate;
+
+	private final WebClient tanWebClient;
 	
 	private final Sha256Service sha256Service;
+
+	private final TanProperties tanProperties;
+
+	private final CircuitBreaker tanCircuitBreaker;
+
+	private final Bulkhead tanBulkhead;
+
+	private final MeterRegistry meterRegistry;
+
+	//expiration time of the positive results by the hash of uuid, TAN and type
+	private final Map<String, Long> validTans = new ConcurrentHashMap<>();
 		
+	private static final String MODE_SYNC = "sync";
+	private static final String MODE_ASYNC = "async";
+	private static final String OUTCOME_VALID = "valid";
+	private static final String OUTCOME_INVALID = "invalid";
+	private static final String OUTCOME_MALFORMED = "malformed";
+	private static final String OUTCOME_CACHED = "cached";
+	private static final String OUTCOME_REJECTED = "rejected";
+	private static final String OUTCOME_ERROR = "error";
+
 	private final Pattern TAN_PATTERN = Pattern.compile("^[0-9]{6}$");
 	
 	@Value("${external.personal.data.storage.url:}")
@@ -52,33 +93,144 @@ public class TanService {
 	 * @param tan TAN
 	 * @param type
 	 * @return returns a response that contain the state and the response from the external TAN service
+	 * @throws TanServiceUnavailableException if the circuit breaker is open or the bulkhead is full
 	 */
-	public boolean validate(String uuid, String tan, String type) {
-		HttpHeaders headers = new HttpHeaders();
-		headers.setContentType(MediaType.APPLICATION_JSON);
-		
-		headers.add(personalDataServiceAutorizationKeyName,personalDataServiceAutorizationKeyValue);
-		
-		StringJoiner stringJoiner = new StringJoiner(",");
-		stringJoiner.add(uuid).add(personalDataServiceSha256Key).add(type);		
-		String sha256 = sha256Service.sha256(stringJoiner.toString());		
-		TanRequest request = new TanRequest(uuid, tan, type, sha256);
-		HttpEntity<TanRequest> entity= new HttpEntity<>(request, headers);
+	public boolean validate(String uuid, String tan, String type) throws TanServiceUnavailableException {
+		long start = System.nanoTime();
 		if (StringUtils.isBlank(tan) || !TAN_PATTERN.matcher(tan).matches()) {
 			// The TAN did not match the expected pattern --> fail
 			// NOTE: This should not be a silent fail, thus validation annotation cannot be used
+			recordValidation(MODE_SYNC, OUTCOME_MALFORMED, start);
 			return false;
 		} else {
+			String cacheKey = cacheKey(uuid, tan, type);
+			if (isCached(cacheKey)) {
+				recordValidation(MODE_SYNC, OUTCOME_CACHED, start);
+				return true;
+			}
+			HttpEntity<TanRequest> entity= new HttpEntity<>(tanRequest(uuid, tan, type), headers());
 			try {
-				ResponseEntity<String> tanCall = restTemplate.postForEntity(personalDataServiceUrl, entity, String.class);
-				return tanCall.getStatusCodeValue() == 200;
+				ResponseEntity<String> tanCall = Bulkhead.decorateSupplier(tanBulkhead,
+						CircuitBreaker.decorateSupplier(tanCircuitBreaker, () -> restTemplate.postForEntity(personalDataServiceUrl, entity, String.class)))
+						.get();
+				boolean valid = tanCall.getStatusCodeValue() == 200;
+				if (valid) {
+					cacheValidTan(cacheKey);
+				}
+				recordValidation(MODE_SYNC, valid ? OUTCOME_VALID : OUTCOME_INVALID, start);
+				return valid;
 				//return new TanResponse(tanCall.getStatusCodeValue(), tanCall.getBody());
+			} catch (CallNotPermittedException | BulkheadFullException e) {
+				recordValidation(MODE_SYNC, OUTCOME_REJECTED, start);
+				throw new TanServiceUnavailableException(e.getMessage());
 			} catch (Exception e) {
 				//return new TanResponse(e.getRawStatusCode(), INVALID_TAN_ERROR_MESSAGE);
+				recordValidation(MODE_SYNC, e instanceof HttpClientErrorException ? OUTCOME_INVALID : OUTCOME_ERROR, start);
 				return false;
 			}
 		}
 		
 	}
 
+	/**
+	 * Validates a phone number with a TAN without blocking the calling thread.
+	 * The number of concurrent calls is limited by the connection pool of the client instead of the bulkhead.
+	 * 
+	 * @param uuid id of the request
+	 * @param tan TAN
+	 * @param type
+	 * @return future completed with the result of the validation,
+	 * or failed with TanServiceUnavailableException if the circuit breaker is open
+	 */
+	public CompletableFuture<Boolean> validateAsync(String uuid, String tan, String type) {
+		long start = System.nanoTime();
+		if (StringUtils.isBlank(tan) || !TAN_PATTERN.matcher(tan).matches()) {
+			recordValidation(MODE_ASYNC, OUTCOME_MALFORMED, start);
+			return CompletableFuture.completedFuture(false);
+		}
+		String cacheKey = cacheKey(uuid, tan, type);
+		if (isCached(cacheKey)) {
+			recordValidation(MODE_ASYNC, OUTCOME_CACHED, start);
+			return CompletableFuture.completedFuture(true);
+		}
+		if (!tanCircuitBreaker.tryAcquirePermission()) {
+			recordValidation(MODE_ASYNC, OUTCOME_REJECTED, start);
+			CompletableFuture<Boolean> result = new CompletableFuture<>();
+			result.completeExceptionally(new TanServiceUnavailableException(String.format("CircuitBreaker '%s' is %s", tanCircuitBreaker.getName(), tanCircuitBreaker.getState())));
+			return result;
+		}
+		return tanWebClient.post()
+				.uri(personalDataServiceUrl)
+				.headers(h -> h.addAll(headers()))
+				.bodyValue(tanRequest(uuid, tan, type))
+				.exchange()
+				.flatMap(response -> response.rawStatusCode() >= 500
+						? response.createException().flatMap(e -> Mono.<Boolean>error(e))
+						: response.releaseBody().thenReturn(response.rawStatusCode() == 200))
+				.timeout(tanProperties.getReadTimeout())
+				.doOnSuccess(valid -> tanCircuitBreaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+				.doOnError(e -> tanCircuitBreaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e))
+				.doOnCancel(tanCircuitBreaker::releasePermission)
+				.doOnNext(valid -> {
+					if (valid) {
+						cacheValidTan(cacheKey);
+					}
+					recordValidation(MODE_ASYNC, valid ? OUTCOME_VALID : OUTCOME_INVALID, start);
+				})
+				.doOnError(e -> recordValidation(MODE_ASYNC, OUTCOME_ERROR, start))
+				.onErrorReturn(false)
+				.toFuture();
+	}
+
+	/**
+	 * Removes the cached results
+	 */
+	public void clearCache() {
+		validTans.clear();
+	}
+
+	private void recordValidation(String mode, String outcome, long start) {
+		Timer.builder("tan.validation")
+				.description("Latency and outcome of the TAN validations")
+				.tags("mode", mode, "outcome", outcome)
+				.register(meterRegistry)
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	private HttpHeaders headers() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		
+		headers.add(personalDataServiceAutorizationKeyName,personalDataServiceAutorizationKeyValue);
+		return headers;
+	}
+
+	private TanRequest tanRequest(String uuid, String tan, String type) {
+		StringJoiner stringJoiner = new StringJoiner(",");
+		stringJoiner.add(uuid).add(personalDataServiceSha256Key).add(type);		
+		String sha256 = sha256Service.sha256(stringJoiner.toString());		
+		return new TanRequest(uuid, tan, type, sha256);
+	}
+
+	private String cacheKey(String uuid, String tan, String type) {
+		return sha256Service.sha256(new StringJoiner(",").add(uuid).add(tan).add(type).toString());
+	}
+
+	private boolean isCached(String cacheKey) {
+		Long expiresAt = validTans.get(cacheKey);
+		return expiresAt != null && expiresAt > System.currentTimeMillis();
+	}
+
+	private void cacheValidTan(String cacheKey) {
+		long now = System.currentTimeMillis();
+		if (validTans.size() >= tanProperties.getCacheMaxSize()) {
+			validTans.values().removeIf(expiresAt -> expiresAt <= now);
+			if (validTans.size() >= tanProperties.getCacheMaxSize()) {
+				//only a cache, the TAN service is called again for the dropped entries
+				validTans.clear();
+			}
+		}
+		validTans.put(cacheKey, now + tanProperties.getCacheTtl().toMillis());
+	}
+
 }
@@ -2,51 +2,106 @@ package at.roteskreuz.covidapp.sign;
 
 import at.roteskreuz.covidapp.util.PemReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.Signature;
+import java.util.Arrays;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.util.FileCopyUtils;
 
 /**
  * Base class for signers.
  * Exported files are signed with private keys during the export process.
+ * The private key is parsed only when the encoded key changes and every thread
+ * reuses its own initialised {@link Signature}.
  * 
  * @author Bernhard Roessler
  */
 @Slf4j
 public abstract class AbstractSigner implements Signer {
 
+	private volatile SigningKey signingKey;
+
 	/**
 	 * Signs data with private key
 	 * @param data data to be signed
-	 * @param keyInputStream private key
+	 * @param encodedKey private key
 	 * @param signatureAlgorithm algorithm used
 	 * @param keyType key type used
 	 * @return signed data
 	 * @throws GeneralSecurityException
 	 * @throws IOException 
 	 */
-	protected byte[] signature(byte[] data, InputStream keyInputStream, String signatureAlgorithm, String keyType)
+	protected byte[] signature(byte[] data, byte[] encodedKey, String signatureAlgorithm, String keyType)
 									throws GeneralSecurityException, IOException {
-		Signature ecdsa = Signature.getInstance(signatureAlgorithm);
-		ecdsa.initSign(getPrivateKey(keyInputStream, keyType));
-		ecdsa.update(data);
-		return ecdsa.sign();
+		SigningKey key = getSigningKey(encodedKey, signatureAlgorithm, keyType);
+		Signature ecdsa = key.getSignature();
+		try {
+			ecdsa.update(data);
+			return ecdsa.sign();
+		} catch (GeneralSecurityException | RuntimeException e) {
+			//the state of the instance is unknown, a new one is initialised with the next call
+			key.signatures.remove();
+			throw e;
+		}
 	}
 
 	/**
 	 * gets the private key used for signing data
-	 * @param keyInputStream input stream to get the key from
+	 * @param encodedKey the encoded key
 	 * @param keyType the type of the key
 	 * @return
 	 * @throws IOException
 	 * @throws GeneralSecurityException 
 	 */
-	protected PrivateKey getPrivateKey(InputStream keyInputStream, String keyType)
+	protected PrivateKey getPrivateKey(byte[] encodedKey, String keyType)
 			throws IOException, GeneralSecurityException {
-		return PemReader.loadPrivateKey(FileCopyUtils.copyToByteArray(keyInputStream), keyType);
+		return PemReader.loadPrivateKey(encodedKey, keyType);
+	}
+
+	private SigningKey getSigningKey(byte[] encodedKey, String signatureAlgorithm, String keyType) throws IOException, GeneralSecurityException {
+		SigningKey key = signingKey;
+		if (key == null || !key.matches(encodedKey, signatureAlgorithm)) {
+			synchronized (this) {
+				key = signingKey;
+				if (key == null || !key.matches(encodedKey, signatureAlgorithm)) {
+					log.info("Loading private key for signing");
+					key = new SigningKey(encodedKey.clone(), signatureAlgorithm, getPrivateKey(encodedKey, keyType));
+					signingKey = key;
+				}
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Parsed private key with the Signature instances initialised with it
+	 */
+	private static class SigningKey {
+
+		private final byte[] encodedKey;
+		private final String signatureAlgorithm;
+		private final PrivateKey privateKey;
+		private final ThreadLocal<Signature> signatures = new ThreadLocal<>();
+
+		SigningKey(byte[] encodedKey, String signatureAlgorithm, PrivateKey privateKey) {
+			this.encodedKey = encodedKey;
+			this.signatureAlgorithm = signatureAlgorithm;
+			this.privateKey = privateKey;
+		}
+
+		boolean matches(byte[] encodedKey, String signatureAlgorithm) {
+			return this.signatureAlgorithm.equals(signatureAlgorithm) && Arrays.equals(this.encodedKey, encodedKey);
+		}
+
+		Signature getSignature() throws GeneralSecurityException {
+			Signature signature = signatures.get();
+			if (signature == null) {
+				signature = Signature.getInstance(signatureAlgorithm);
+				signature.initSign(privateKey);
+				signatures.set(signature);
+			}
+			return signature;
+		}
 	}
 
 }
@@ -0,0 +1,40 @@
+package at.roteskreuz.covidapp.sign;
+
+import at.roteskreuz.covidapp.properties.SignatureProperties;
+import com.azure.identity.DefaultAzureCredentialBuilder;
+import com.azure.security.keyvault.secrets.SecretClient;
+import com.azure.security.keyvault.secrets.SecretClientBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * SecretProvider that gets the secret from Azure Key Vault.
+ * The client and its credential are created once and reused for every fetch.
+ */
+@Slf4j
+public class AzureKeyVaultSecretProvider implements SecretProvider {
+
+	private final SignatureProperties signatureProperties;
+	private final SecretClient secretClient;
+
+	/**
+	 * Creates the provider
+	 * @param signatureProperties properties containing the name of the vault and the secret
+	 */
+	public AzureKeyVaultSecretProvider(SignatureProperties signatureProperties) {
+		this.signatureProperties = signatureProperties;
+		this.secretClient = new SecretClientBuilder()
+				.vaultUrl("https://" + signatureProperties.getAzureKeyVaultName() + ".vault.azure.net/")
+				.credential(new DefaultAzureCredentialBuilder().build())
+				.buildClient();
+	}
+
+	/**
+	 * Fetches the secret from the key vault
+	 * @return value of the secret
+	 */
+	@Override
+	public String getSecret() {
+		log.debug(String.format("Fetching secret %s from Azure Key Vault", signatureProperties.getAzureSecretName()));
+		return secretClient.getSecret(signatureProperties.getAzureSecretName()).getValue();
+	}
+}
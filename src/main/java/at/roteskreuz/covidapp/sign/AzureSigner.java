@@ -1,10 +1,6 @@
 package at.roteskreuz.covidapp.sign;
 
 import at.roteskreuz.covidapp.properties.SignatureProperties;
-import com.azure.identity.DefaultAzureCredentialBuilder;
-import com.azure.security.keyvault.secrets.SecretClient;
-import com.azure.security.keyvault.secrets.SecretClientBuilder;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import lombok.RequiredArgsConstructor;
@@ -20,6 +16,7 @@ import lombok.extern.slf4j.Slf4j;
 public class AzureSigner extends AbstractSigner {
 
 	private final SignatureProperties signatureProperties;
+	private final SecretProvider secretProvider;
 
 	/**
 	 * Signs data
@@ -30,16 +27,8 @@ public class AzureSigner extends AbstractSigner {
 	 */
 	@Override
 	public byte[] sign(byte[] data) throws GeneralSecurityException, IOException {
-		String secret = getAzureSecret();
-		return signature(data, new ByteArrayInputStream(secret.getBytes()),
+		String secret = secretProvider.getSecret();
+		return signature(data, secret.getBytes(),
 							signatureProperties.getSignatureAlgorithm(), signatureProperties.getSignatureKeyType());
 	}
-
-	private String getAzureSecret() {
-		SecretClient secretClient = new SecretClientBuilder()
-				.vaultUrl("https://" + signatureProperties.getAzureKeyVaultName() + ".vault.azure.net/")
-				.credential(new DefaultAzureCredentialBuilder().build())
-				.buildClient();
-		return secretClient.getSecret(signatureProperties.getAzureSecretName()).getValue();
-	}
 }
@@ -0,0 +1,124 @@
+package at.roteskreuz.covidapp.sign;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * SecretProvider that caches the secret of another provider.
+ * The secret is refreshed in the background when it gets close to its time to live
+ * and the last known value is used when the source cannot be reached, also after the time to live.
+ * Only the first fetch blocks the callers, a failed refresh is retried in the background
+ * after the refresh ahead period (at least 10 seconds).
+ */
+@Slf4j
+public class CachingSecretProvider implements SecretProvider {
+
+	private static final Duration MIN_RETRY_INTERVAL = Duration.ofSeconds(10);
+
+	private final SecretProvider delegate;
+	private final Duration ttl;
+	private final Duration refreshAhead;
+	private final Duration retryInterval;
+	private final Executor refreshExecutor;
+	private final Clock clock;
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+
+	private volatile CachedSecret cachedSecret;
+	private volatile Instant retryAt = Instant.MIN;
+
+	/**
+	 * Creates the provider
+	 * @param delegate source of the secret
+	 * @param ttl time to live of the cached secret
+	 * @param refreshAhead period before the end of ttl when the secret is refreshed in the background
+	 */
+	public CachingSecretProvider(SecretProvider delegate, Duration ttl, Duration refreshAhead) {
+		this(delegate, ttl, refreshAhead, Executors.newSingleThreadExecutor(daemonThreadFactory()), Clock.systemUTC());
+	}
+
+	/**
+	 * Creates the provider
+	 * @param delegate source of the secret
+	 * @param ttl time to live of the cached secret
+	 * @param refreshAhead period before the end of ttl when the secret is refreshed in the background
+	 * @param refreshExecutor executor running the background refresh
+	 * @param clock clock used for the expiration
+	 */
+	public CachingSecretProvider(SecretProvider delegate, Duration ttl, Duration refreshAhead, Executor refreshExecutor, Clock clock) {
+		this.delegate = delegate;
+		this.ttl = ttl;
+		this.refreshAhead = refreshAhead.compareTo(ttl) > 0 ? ttl : refreshAhead;
+		this.retryInterval = this.refreshAhead.compareTo(MIN_RETRY_INTERVAL) < 0 ? MIN_RETRY_INTERVAL : this.refreshAhead;
+		this.refreshExecutor = refreshExecutor;
+		this.clock = clock;
+	}
+
+	/**
+	 * Gets the cached secret
+	 * @return value of the secret
+	 */
+	@Override
+	public String getSecret() {
+		CachedSecret secret = cachedSecret;
+		if (secret == null) {
+			return load().value;
+		}
+		Instant now = clock.instant();
+		//the callers are never blocked by a refresh, not even after the time to live while the source is not available
+		if (!now.isBefore(secret.loadedAt.plus(ttl).minus(refreshAhead)) && !now.isBefore(retryAt) && refreshing.compareAndSet(false, true)) {
+			try {
+				refreshExecutor.execute(this::refresh);
+			} catch (RejectedExecutionException e) {
+				log.warn("Could not start the refresh of the secret", e);
+				refreshing.set(false);
+			}
+		}
+		return secret.value;
+	}
+
+	private void refresh() {
+		try {
+			load();
+		} catch (RuntimeException e) {
+			retryAt = clock.instant().plus(retryInterval);
+			log.warn(String.format("Could not refresh the secret, using the last known value until the next attempt at %s", retryAt), e);
+		} finally {
+			refreshing.set(false);
+		}
+	}
+
+	private synchronized CachedSecret load() {
+		CachedSecret secret = cachedSecret;
+		//another thread might have loaded it in the meantime
+		if (secret != null && clock.instant().isBefore(secret.loadedAt.plus(ttl).minus(refreshAhead))) {
+			return secret;
+		}
+		secret = new CachedSecret(delegate.getSecret(), clock.instant());
+		cachedSecret = secret;
+		return secret;
+	}
+
+	private static CustomizableThreadFactory daemonThreadFactory() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("secret-refresh-");
+		threadFactory.setDaemon(true);
+		return threadFactory;
+	}
+
+	private static class CachedSecret {
+
+		private final String value;
+		private final Instant loadedAt;
+
+		CachedSecret(String value, Instant loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
@@ -6,9 +6,12 @@ import java.security.GeneralSecurityException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileCopyUtils;
 
 /**
  * Signer that gets the private key from filesystem.
+ * The key file is read again only when it was modified.
  * 
  * @author Bernhard Roessler
  */
@@ -19,6 +22,9 @@ public class FilesystemSigner extends AbstractSigner {
 
 	private final SignatureProperties signatureProperties;
 
+	private byte[] encodedKey;
+	private long keyLastModified;
+
 	/**
 	 * Signs data
 	 * @param data data to be signed
@@ -28,7 +34,26 @@ public class FilesystemSigner extends AbstractSigner {
 	 */
 	@Override
 	public byte[] sign(byte[] data) throws GeneralSecurityException, IOException {
-		return signature(data, new ClassPathResource(signatureProperties.getFilePrivateKeyLocation()).getInputStream(),
+		return signature(data, getEncodedKey(),
 							signatureProperties.getSignatureAlgorithm(), signatureProperties.getSignatureKeyType());
 	}
+
+	private synchronized byte[] getEncodedKey() throws IOException {
+		Resource resource = new ClassPathResource(signatureProperties.getFilePrivateKeyLocation());
+		long lastModified = getLastModified(resource);
+		if (encodedKey == null || lastModified != keyLastModified) {
+			encodedKey = FileCopyUtils.copyToByteArray(resource.getInputStream());
+			keyLastModified = lastModified;
+		}
+		return encodedKey;
+	}
+
+	private long getLastModified(Resource resource) {
+		try {
+			return resource.lastModified();
+		} catch (IOException e) {
+			//the modification time is not available (e.g. inside of a jar), the key is loaded only once
+			return 0L;
+		}
+	}
 }
@@ -0,0 +1,14 @@
+package at.roteskreuz.covidapp.sign;
+
+/**
+ * SecretProvider defines the minimum interface for a source of the signing key
+ */
+public interface SecretProvider {
+
+	/**
+	 * Gets the secret
+	 * @return the current value of the secret
+	 */
+	String getSecret();
+
+}
@@ -1,5 +1,6 @@
 package at.roteskreuz.covidapp.validation;
 
+import io.micrometer.core.instrument.Metrics;
 import javax.validation.ConstraintValidatorContext;
 import lombok.extern.slf4j.Slf4j;
 
@@ -23,4 +24,14 @@ public class AbstractValidator  {
 				.buildConstraintViolationWithTemplate(message)
 				.addConstraintViolation();
 	}	
+
+	/**
+	 * Counts a rejected publish request.
+	 * The validators are created by the validation provider, so the counter is registered
+	 * in the global registry that Spring Boot binds to the application registry.
+	 * @param reason reason of the rejection used as tag of the publish.rejected counter
+	 */
+	protected void countRejection(String reason) {
+		Metrics.counter("publish.rejected", "reason", reason).increment();
+	}
 }
@@ -47,19 +47,23 @@ public class ExposureKeyValidator extends AbstractValidator implements Constrain
 		String key =exposureKey.binKey();
 		if (key.length() != ApplicationConfig.KEY_LENGTH) {
 			addErrorMessage(context, "invalid key length, " + key.length() + ", must be " + ApplicationConfig.KEY_LENGTH);
+			countRejection("invalid_key_length");
 			result = false;
 			
 		}
 		if (exposureKey.getIntervalCount() < ApplicationConfig.MIN_INTERVAL_COUNT || exposureKey.getIntervalCount() > ApplicationConfig.MAX_INTERVAL_COUNT ) {
 			addErrorMessage(context, String.format("invalid interval count, %s, must be >= %s && <= %s", exposureKey.getIntervalCount(), ApplicationConfig.MIN_INTERVAL_COUNT, ApplicationConfig.MAX_INTERVAL_COUNT));
+			countRejection("invalid_interval_count");
 			result = false;
 		}
 		if (exposureKey.getIntervalNumber() < minIntervalNumber) {
 			addErrorMessage(context, String.format("interval number %s is too old, must be >= %s", exposureKey.getIntervalNumber(), minIntervalNumber));
+			countRejection("interval_too_old");
 			result = false;
 		}
 		if (exposureKey.getIntervalNumber() >= maxIntervalNumber) {
 			addErrorMessage(context, String.format("interval number %s is in the future, must be < %s", exposureKey.getIntervalNumber(), minIntervalNumber));
+			countRejection("interval_in_future");
 			result = false;
 		}		
 		return result;
@@ -48,15 +48,18 @@ public class PublishValidator extends AbstractValidator implements ConstraintVal
 		AuthorizedApp authorizedApp = authorizedAppService.findById(publish.getAppPackageName());
 		if (authorizedApp == null) {
 			addErrorMessage(context, "Unauthorized app");
+			countRejection("unauthorized_app");
 			result = false;
 		} else if (publish.getRegions().size() != publish.getRegions().stream().map(s -> authorizedApp.isRegionAllowed(s)).filter(p -> p == true).count()) {
 			//check if region is allowed
 			addErrorMessage(context, "Region is not allowed");
+			countRejection("region_not_allowed");
 			result = false;
 		}
 
 		if (publish.getKeys().size() > maxExposureKeys) {
 			addErrorMessage(context, String.format("too many exposure keys in publish:%s , max of %s is allowed!", publish.getKeys().size(), maxExposureKeys));
+			countRejection("too_many_keys");
 			result = false;
 		}
 
@@ -72,6 +75,7 @@ public class PublishValidator extends AbstractValidator implements ConstraintVal
 			for (ExposureKey key : publish.getKeys()) {
 				if (key.getIntervalNumber() < nextInterval) {
 					addErrorMessage(context, String.format("exposure keys have overlapping intervals"));
+					countRejection("overlapping_intervals");
 					result = false;
 				}
 				nextInterval = key.getIntervalNumber() + key.getIntervalCount();
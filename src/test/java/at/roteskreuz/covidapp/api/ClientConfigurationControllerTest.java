@@ -1,13 +1,16 @@
 package at.roteskreuz.covidapp.api;
 
 import at.roteskreuz.covidapp.domain.ClientConfiguration;
+import at.roteskreuz.covidapp.model.EncodedClientConfiguration;
 import at.roteskreuz.covidapp.service.ClientConfigurationService;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.Month;
-import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.Date;
 import java.util.Locale;
+import java.util.TimeZone;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.startsWith;
 import org.junit.jupiter.api.Test;
@@ -16,7 +19,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpHeaders.LAST_MODIFIED;
+import static org.springframework.http.HttpHeaders.VARY;
 import org.springframework.test.web.servlet.MockMvc;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -40,6 +48,10 @@ public class ClientConfigurationControllerTest {
 	@MockBean
 	private ClientConfigurationService service;
 	
+	private static final String GZIP = "gzip";
+	private static final String CONFIG_ETAG = "\"0123456789abcdef\"";
+	private static final String CONFIG_GZIP_ETAG = "\"0123456789abcdef-gzip\"";
+
 	@Test
 	public void configShouldReturnConfiguration() throws Exception {
 		ClientConfiguration config = new ClientConfiguration();
@@ -47,20 +59,86 @@ public class ClientConfigurationControllerTest {
 		config.setDateCreated(LocalDateTime.of(2020, Month.JANUARY, 1, 12, 0));
 		config.setId(1L);		
 		SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss", Locale.US);
-		String lastModifiedDate = dateFormat.format(Date.from(config.getDateCreated().atZone( ZoneId.systemDefault()).toInstant()));
-		when(service.getConfiuration()).thenReturn(config);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+		String lastModifiedDate = dateFormat.format(Date.from(config.getDateCreated().toInstant(ZoneOffset.UTC)));
+		when(service.getEncodedConfiguration()).thenReturn(encode(config));
 		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration"))
 				.andDo(print())
 				.andExpect(status().isOk())
 				.andExpect(content().string(containsString(config.getData())))
+				.andExpect(header().string(ETAG, CONFIG_ETAG))
+				.andExpect(header().doesNotExist(CONTENT_ENCODING))
 				.andExpect(header().string(LAST_MODIFIED,startsWith(lastModifiedDate)));
 	}	
 
+	@Test
+	public void matchingEtagShouldReturnNotModified() throws Exception {
+		ClientConfiguration config = new ClientConfiguration();
+		config.setData("DATA");
+		config.setDateCreated(LocalDateTime.of(2020, Month.JANUARY, 1, 12, 0));
+		when(service.getEncodedConfiguration()).thenReturn(encode(config));
+		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration").header(IF_NONE_MATCH, CONFIG_ETAG))
+				.andDo(print())
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(VARY, ACCEPT_ENCODING))
+				.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	public void gzipEtagShouldOnlyMatchGzipRequests() throws Exception {
+		ClientConfiguration config = new ClientConfiguration();
+		config.setData("DATA");
+		config.setDateCreated(LocalDateTime.of(2020, Month.JANUARY, 1, 12, 0));
+		when(service.getEncodedConfiguration()).thenReturn(encode(config));
+		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration").header(ACCEPT_ENCODING, GZIP).header(IF_NONE_MATCH, CONFIG_GZIP_ETAG))
+				.andDo(print())
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(ETAG, CONFIG_GZIP_ETAG))
+				.andExpect(header().string(VARY, ACCEPT_ENCODING));
+		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration").header(IF_NONE_MATCH, CONFIG_GZIP_ETAG))
+				.andDo(print())
+				.andExpect(status().isOk())
+				.andExpect(header().string(ETAG, CONFIG_ETAG))
+				.andExpect(content().string(config.getData()));
+		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration").header(ACCEPT_ENCODING, GZIP).header(IF_NONE_MATCH, CONFIG_ETAG))
+				.andDo(print())
+				.andExpect(status().isOk())
+				.andExpect(header().string(ETAG, CONFIG_GZIP_ETAG))
+				.andExpect(header().string(CONTENT_ENCODING, GZIP));
+	}
+
+	@Test
+	public void gzipShouldBeReturnedIfAccepted() throws Exception {
+		ClientConfiguration config = new ClientConfiguration();
+		config.setData("DATA");
+		config.setDateCreated(LocalDateTime.of(2020, Month.JANUARY, 1, 12, 0));
+		EncodedClientConfiguration encoded = encode(config);
+		when(service.getEncodedConfiguration()).thenReturn(encoded);
+		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration").header(ACCEPT_ENCODING, "br, gzip;q=0.8"))
+				.andDo(print())
+				.andExpect(status().isOk())
+				.andExpect(header().string(CONTENT_ENCODING, GZIP))
+				.andExpect(header().string(ETAG, CONFIG_GZIP_ETAG))
+				.andExpect(header().string(VARY, ACCEPT_ENCODING))
+				.andExpect(content().bytes(encoded.getGzipData()));
+		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration").header(ACCEPT_ENCODING, "gzip;q=0"))
+				.andDo(print())
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist(CONTENT_ENCODING))
+				.andExpect(content().string(config.getData()));
+	}
+
 	@Test
 	public void emptyConfigShouldReturnNotFound() throws Exception {	
-		when(service.getConfiuration()).thenReturn(null);
+		when(service.getEncodedConfiguration()).thenReturn(null);
 		this.mockMvc.perform(get("/api/v" + appVersion + "/configuration"))
 				.andDo(print())
 				.andExpect(status().isNotFound());
 	}
+
+	private EncodedClientConfiguration encode(ClientConfiguration config) {
+		//stand-in for the compressed data, the controller does not inspect it
+		byte[] gzipData = new byte[]{31, -117, 8};
+		return new EncodedClientConfiguration(config.getData().getBytes(StandardCharsets.UTF_8), gzipData, CONFIG_ETAG, config.getDateCreated().toInstant(ZoneOffset.UTC).toEpochMilli());
+	}
 }
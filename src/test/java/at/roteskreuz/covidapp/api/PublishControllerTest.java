@@ -1,6 +1,8 @@
 package at.roteskreuz.covidapp.api;
 
 import at.roteskreuz.covidapp.domain.AuthorizedApp;
+import at.roteskreuz.covidapp.exception.PublishQueueFullException;
+import at.roteskreuz.covidapp.exception.TanServiceUnavailableException;
 import at.roteskreuz.covidapp.model.ApiResponse;
 import at.roteskreuz.covidapp.model.Publish;
 import at.roteskreuz.covidapp.properties.PublishProperties;
@@ -10,7 +12,9 @@ import at.roteskreuz.covidapp.service.TanService;
 import at.roteskreuz.covidapp.util.PublishUtil;
 import at.roteskreuz.covidapp.validation.PublishValidator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.concurrent.CompletableFuture;
 import javax.validation.ConstraintValidatorContext;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -20,8 +24,11 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /*
@@ -51,7 +58,7 @@ public class PublishControllerTest {
 
 
 	@BeforeEach
-	public void setUp() {
+	public void setUp() throws Exception {
 
 		publish = PublishUtil.createPublish(1);
 
@@ -63,11 +70,17 @@ public class PublishControllerTest {
 		Mockito.when(publishService.publish(Mockito.any())).thenReturn(ApiResponse.ok());
 	}
 
+	@AfterEach
+	public void tearDown() {
+		publishProperties.setAsync(false);
+	}
+
 	@Test
 	public void validPublishRequestShouldReturnOk() throws Exception {
 		Mockito.when(tanService.validate(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType())).thenReturn(Boolean.TRUE);
 		this.mockMvc.perform(post("/api/v" + appVersion + "/publish").content(objectMapper.writeValueAsString(publish)).contentType(MediaType.APPLICATION_JSON))
 				.andDo(print())
+				.andExpect(request().asyncNotStarted())
 				.andExpect(status().isOk());
 	}
 
@@ -78,6 +91,51 @@ public class PublishControllerTest {
 				.andDo(print())
 				.andExpect(status().isForbidden());
 	}
+
+	@Test
+	public void fullPublishQueueShouldReturnServiceUnavailable() throws Exception {
+		Mockito.when(tanService.validate(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType())).thenReturn(Boolean.TRUE);
+		Mockito.when(publishService.publish(Mockito.any())).thenThrow(new PublishQueueFullException("full"));
+		this.mockMvc.perform(post("/api/v" + appVersion + "/publish").content(objectMapper.writeValueAsString(publish)).contentType(MediaType.APPLICATION_JSON))
+				.andDo(print())
+				.andExpect(status().isServiceUnavailable());
+	}
+
+	@Test
+	public void unavailableTanServiceShouldReturnServiceUnavailable() throws Exception {
+		Mockito.when(tanService.validate(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType())).thenThrow(new TanServiceUnavailableException("open"));
+		this.mockMvc.perform(post("/api/v" + appVersion + "/publish").content(objectMapper.writeValueAsString(publish)).contentType(MediaType.APPLICATION_JSON))
+				.andDo(print())
+				.andExpect(status().isServiceUnavailable());
+		Mockito.verify(publishService, Mockito.never()).publish(Mockito.any());
+	}
+
+	@Test
+	public void validAsyncPublishRequestShouldReturnOk() throws Exception {
+		publishProperties.setAsync(true);
+		Mockito.when(tanService.validateAsync(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType())).thenReturn(CompletableFuture.completedFuture(Boolean.TRUE));
+		Mockito.when(publishService.publishAsync(Mockito.any())).thenReturn(CompletableFuture.completedFuture(ApiResponse.ok()));
+		MvcResult result = this.mockMvc.perform(post("/api/v" + appVersion + "/publish").content(objectMapper.writeValueAsString(publish)).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(result))
+				.andDo(print())
+				.andExpect(status().isOk());
+		Mockito.verify(publishService, Mockito.never()).publish(Mockito.any());
+	}
+
+	@Test
+	public void invalidAsyncPublishRequestShouldBeForbidden() throws Exception {
+		publishProperties.setAsync(true);
+		Mockito.when(tanService.validateAsync(publish.getVerificationPayload().getUuid(), publish.getVerificationPayload().getAuthorization(), publish.getDiagnosisType())).thenReturn(CompletableFuture.completedFuture(Boolean.FALSE));
+		MvcResult result = this.mockMvc.perform(post("/api/v" + appVersion + "/publish").content(objectMapper.writeValueAsString(publish)).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(result))
+				.andDo(print())
+				.andExpect(status().isForbidden());
+		Mockito.verify(publishService, Mockito.never()).publishAsync(Mockito.any());
+	}
 	
 	
 }
@@ -0,0 +1,80 @@
+package at.roteskreuz.covidapp.blobstore;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Tests the atomic writes of the file-system storage
+ */
+public class FilesystemStorageTest {
+
+	@TempDir
+	Path folder;
+
+	private FilesystemStorage storage;
+
+	@BeforeEach
+	public void setUp() {
+		storage = new FilesystemStorage(Runnable::run);
+	}
+
+	@Test
+	public void createObjectShouldWriteFileAndLeaveNoTemporaryFiles() throws Exception {
+		storage.createObject(folder.toString(), "root/1/index.json", "{}".getBytes(StandardCharsets.UTF_8));
+
+		assertThat(folder.resolve("root/1/index.json")).hasContent("{}");
+		assertThat(list(folder.resolve("root/1"))).containsExactly("index.json");
+	}
+
+	@Test
+	public void createObjectShouldReplaceExistingFile() throws Exception {
+		storage.createObject(folder.toString(), "index.json", "old".getBytes(StandardCharsets.UTF_8));
+		storage.createObject(folder.toString(), "index.json", output -> output.write("new".getBytes(StandardCharsets.UTF_8)));
+
+		assertThat(folder.resolve("index.json")).hasContent("new");
+	}
+
+	@Test
+	public void failedWriterShouldKeepPreviousFile() throws Exception {
+		storage.createObject(folder.toString(), "index.json", "old".getBytes(StandardCharsets.UTF_8));
+
+		assertThatThrownBy(() -> storage.createObject(folder.toString(), "index.json", output -> {
+			output.write("torn".getBytes(StandardCharsets.UTF_8));
+			throw new IllegalStateException("failed");
+		})).isInstanceOf(IllegalStateException.class);
+
+		assertThat(folder.resolve("index.json")).hasContent("old");
+		assertThat(list(folder)).containsExactly("index.json");
+	}
+
+	@Test
+	public void copyShouldReplaceDestination() throws Exception {
+		storage.createObject(folder.toString(), "root/1/index.json", "first".getBytes(StandardCharsets.UTF_8));
+		storage.createObject(folder.toString(), "root/2/index.json", "second".getBytes(StandardCharsets.UTF_8));
+
+		storage.copy(folder.toString(), "root/1/index.json", "root/index.json");
+		assertThat(folder.resolve("root/index.json")).hasContent("first");
+
+		storage.copy(folder.toString(), "root/2/index.json", "root/index.json");
+		assertThat(folder.resolve("root/index.json")).hasContent("second");
+
+		//the copy is still available when the source is removed by the cleanup
+		storage.deleteObject(folder.toString(), "root/2/index.json");
+		assertThat(folder.resolve("root/index.json")).hasContent("second");
+		assertThat(new File(folder.toFile(), "root/2")).doesNotExist();
+	}
+
+	private String[] list(Path dir) throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.map(p -> p.getFileName().toString()).toArray(String[]::new);
+		}
+	}
+}
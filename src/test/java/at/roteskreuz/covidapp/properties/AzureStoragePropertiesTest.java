@@ -0,0 +1,44 @@
+package at.roteskreuz.covidapp.properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+
+public class AzureStoragePropertiesTest {
+
+	private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withUserConfiguration(AzureStorageConfiguration.class);
+
+	@Test
+	public void azureStorageSettingsShouldBeBound() {
+		contextRunner.withPropertyValues(
+				"azure.storage.connection-string=DefaultEndpointsProtocol=https;AccountName=account;AccountKey=a2V5",
+				"azure.storage.concurrent-request-count=8",
+				"azure.storage.single-blob-put-threshold-bytes=1048576",
+				"azure.storage.block-size-bytes=2097152")
+				.run(context -> {
+					AzureStorageProperties properties = context.getBean(AzureStorageProperties.class);
+					assertThat(properties.getConnectionString()).isEqualTo("DefaultEndpointsProtocol=https;AccountName=account;AccountKey=a2V5");
+					assertThat(properties.getConcurrentRequestCount()).isEqualTo(8);
+					assertThat(properties.getSingleBlobPutThresholdBytes()).isEqualTo(1048576);
+					assertThat(properties.getBlockSizeBytes()).isEqualTo(2097152);
+				});
+	}
+
+	@Test
+	public void azureStorageSettingsShouldHaveDefaults() {
+		contextRunner.run(context -> {
+			AzureStorageProperties properties = context.getBean(AzureStorageProperties.class);
+			assertThat(properties.getConcurrentRequestCount()).isEqualTo(4);
+			assertThat(properties.getSingleBlobPutThresholdBytes()).isEqualTo(4194304);
+			assertThat(properties.getBlockSizeBytes()).isEqualTo(4194304);
+		});
+	}
+
+	@Configuration
+	@EnableConfigurationProperties(AzureStorageProperties.class)
+	static class AzureStorageConfiguration {
+	}
+}
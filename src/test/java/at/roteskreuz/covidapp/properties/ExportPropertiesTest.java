@@ -0,0 +1,48 @@
+package at.roteskreuz.covidapp.properties;
+
+import java.time.Duration;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ExportPropertiesTest {
+
+	@Test
+	public void truncateWindowDividingADayShouldBeValid() {
+		Assertions.assertThat(properties(Duration.ofMinutes(10), Duration.ofDays(1)).isTruncateWindowValid()).isTrue();
+		Assertions.assertThat(properties(Duration.ofHours(1), Duration.ofHours(12)).isTruncateWindowValid()).isTrue();
+		Assertions.assertThat(properties(Duration.ofDays(1), Duration.ofDays(2)).isTruncateWindowValid()).isTrue();
+	}
+
+	@Test
+	public void truncateWindowShorterThanAnIntervalShouldBeInvalid() {
+		Assertions.assertThat(properties(Duration.ofMinutes(5), Duration.ofDays(1)).isTruncateWindowValid()).isFalse();
+		Assertions.assertThat(properties(Duration.ZERO, Duration.ofDays(1)).isTruncateWindowValid()).isFalse();
+	}
+
+	@Test
+	public void truncateWindowNotAlignedToTheIntervalsShouldBeInvalid() {
+		Assertions.assertThat(properties(Duration.ofMinutes(15), Duration.ofDays(1)).isTruncateWindowValid()).isFalse();
+		Assertions.assertThat(properties(Duration.ofMinutes(70), Duration.ofDays(1)).isTruncateWindowValid()).isFalse();
+		Assertions.assertThat(properties(Duration.ofHours(5), Duration.ofDays(1)).isTruncateWindowValid()).isFalse();
+	}
+
+	@Test
+	public void windowPeriodNotDividedByTheTruncateWindowShouldBeInvalid() {
+		Assertions.assertThat(properties(Duration.ofHours(2), Duration.ofHours(3)).isTruncateWindowValid()).isFalse();
+	}
+
+	@Test
+	public void missingTruncateWindowShouldOnlyBeValidWithoutWindowBatches() {
+		ExportProperties properties = properties(null, Duration.ofDays(1));
+		Assertions.assertThat(properties.isTruncateWindowValid()).isTrue();
+		properties.setWindowBatches(true);
+		Assertions.assertThat(properties.isTruncateWindowValid()).isFalse();
+	}
+
+	private ExportProperties properties(Duration truncateWindow, Duration windowPeriod) {
+		ExportProperties properties = new ExportProperties();
+		properties.setTruncateWindow(truncateWindow);
+		properties.setWindowPeriod(windowPeriod);
+		return properties;
+	}
+}
@@ -2,7 +2,7 @@ package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.domain.AuthorizedApp;
 import at.roteskreuz.covidapp.repository.AuthorizedAppRepository;
-import java.util.Optional;
+import java.util.Arrays;
 import static org.assertj.core.api.Assertions.assertThat;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -30,12 +30,30 @@ public class AuthorizedAppServiceTest {
 		AuthorizedApp app = new AuthorizedApp();
 		app.setAppPackageName(id);
 		app.setPlatform(platform);
-		Mockito.when(repository.findById(id)).thenReturn(Optional.of(app));
+		Mockito.when(repository.findAll()).thenReturn(Arrays.asList(app));
+		service.refresh();
 
 		AuthorizedApp found = service.findById(id);
 
 		assertThat(found.getAppPackageName()).isEqualTo(id);
 		assertThat(found.getPlatform()).isEqualTo(platform);
+		assertThat(service.findById("unknown")).isNull();
+		Mockito.verify(repository, Mockito.never()).findById(Mockito.any());
+	}
+
+	@Test
+	public void refreshShouldReplaceTheLoadedApps() {
+		AuthorizedApp app = new AuthorizedApp();
+		app.setAppPackageName("at.roteskreuz.stopcorona");
+		app.setAllowedRegions(Arrays.asList("AT"));
+		Mockito.when(repository.findAll()).thenReturn(Arrays.asList(app));
+		service.refresh();
+		assertThat(service.findById("at.roteskreuz.stopcorona").isRegionAllowed("at")).isTrue();
+		assertThat(service.findById("at.roteskreuz.stopcorona").isRegionAllowed("HU")).isFalse();
+
+		Mockito.when(repository.findAll()).thenReturn(Arrays.asList());
+		service.refresh();
+		assertThat(service.findById("at.roteskreuz.stopcorona")).isNull();
 	}
 
 }
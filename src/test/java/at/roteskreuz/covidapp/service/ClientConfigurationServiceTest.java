@@ -1,10 +1,15 @@
 package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.domain.ClientConfiguration;
+import at.roteskreuz.covidapp.model.EncodedClientConfiguration;
 import at.roteskreuz.covidapp.repository.ClientConfigurationRepository;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.time.ZoneOffset;
 import java.util.Optional;
+import java.util.zip.GZIPInputStream;
 import static org.assertj.core.api.Assertions.assertThat;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,6 +17,7 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.util.StreamUtils;
 
 /*
  * @author Zoltán Puskai
@@ -32,6 +38,8 @@ public class ClientConfigurationServiceTest {
 		config.setId(1L);
 
 		Mockito.when(repository.findById(1L)).thenReturn(Optional.of(config));
+		Mockito.when(repository.findDateCreatedById(1L)).thenReturn(config.getDateCreated());
+		service.refresh();
 	}
 
 	@Test
@@ -46,4 +54,57 @@ public class ClientConfigurationServiceTest {
 		assertThat(found.getId()).isEqualTo(1L);
 	}
 
+	@Test
+	public void encodedConfigurationShouldContainCompressedDataAndEtag() throws Exception {
+		StringBuilder data = new StringBuilder("{");
+		for (int i = 0; i < 100; i++) {
+			data.append("\"key").append(i).append("\":\"value\",");
+		}
+		data.append("\"last\":\"value\"}");
+		ClientConfiguration config = new ClientConfiguration();
+		config.setData(data.toString());
+		config.setDateCreated(LocalDateTime.of(2020, Month.FEBRUARY, 1, 12, 0));
+		config.setId(1L);
+		Mockito.when(repository.findById(1L)).thenReturn(Optional.of(config));
+		Mockito.when(repository.findDateCreatedById(1L)).thenReturn(config.getDateCreated());
+		assertThat(service.refresh()).isTrue();
+
+		EncodedClientConfiguration encoded = service.getEncodedConfiguration();
+
+		assertThat(encoded.getData()).isEqualTo(data.toString().getBytes(StandardCharsets.UTF_8));
+		assertThat(encoded.getEtag()).startsWith("\"").endsWith("\"").hasSize(66);
+		assertThat(encoded.getLastModified()).isEqualTo(config.getDateCreated().toInstant(ZoneOffset.UTC).toEpochMilli());
+		assertThat(encoded.getGzipData()).isNotNull();
+		assertThat(encoded.getGzipData().length).isLessThan(encoded.getData().length);
+		try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(encoded.getGzipData()))) {
+			assertThat(StreamUtils.copyToByteArray(input)).isEqualTo(encoded.getData());
+		}
+		assertThat(service.getEncodedConfiguration()).isSameAs(encoded);
+	}
+
+	@Test
+	public void unchangedConfigurationShouldNotBeReloaded() {
+		ClientConfiguration found = service.getConfiuration();
+		Mockito.clearInvocations(repository);
+
+		assertThat(service.refresh()).isFalse();
+		assertThat(service.getConfiuration()).isSameAs(found);
+		Mockito.verify(repository, Mockito.times(1)).findDateCreatedById(1L);
+		Mockito.verify(repository, Mockito.never()).findById(Mockito.any());
+	}
+
+	@Test
+	public void changedConfigurationShouldReplaceTheCachedOne() {
+		ClientConfiguration config = new ClientConfiguration();
+		config.setData("NEW DATA");
+		config.setDateCreated(LocalDateTime.of(2020, Month.MARCH, 1, 12, 0));
+		config.setId(1L);
+		Mockito.when(repository.findById(1L)).thenReturn(Optional.of(config));
+		Mockito.when(repository.findDateCreatedById(1L)).thenReturn(config.getDateCreated());
+
+		assertThat(service.refresh()).isTrue();
+		assertThat(service.getConfiuration().getData()).isEqualTo("NEW DATA");
+		assertThat(service.getEncodedConfiguration().getData()).isEqualTo("NEW DATA".getBytes(StandardCharsets.UTF_8));
+	}
+
 }
@@ -0,0 +1,101 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.domain.Exposure;
+import at.roteskreuz.covidapp.domain.SignatureInfo;
+import at.roteskreuz.covidapp.properties.ExportProperties;
+import at.roteskreuz.covidapp.protobuf.Export;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
+
+/*
+ * Tests the marshalling of the export files
+ */
+public class ExportMarshallerTest {
+
+	private static final byte[] SIGNATURE = "signature".getBytes(StandardCharsets.US_ASCII);
+
+	private ExportProperties exportProperties;
+	private ExportMarshaller marshaller;
+	private List<SignatureInfo> signatureInfos;
+
+	@BeforeEach
+	public void setUp() {
+		exportProperties = new ExportProperties();
+		marshaller = new ExportMarshaller(data -> SIGNATURE, exportProperties, new SimpleMeterRegistry());
+		SignatureInfo signatureInfo = new SignatureInfo();
+		signatureInfo.setSigningKeyID("232");
+		signatureInfo.setSigningKeyVersion("v1");
+		signatureInfos = Collections.singletonList(signatureInfo);
+	}
+
+	@Test
+	public void exportFileShouldContainSortedKeysAndSignature() throws Exception {
+		Map<String, byte[]> entries = unzip(marshalExportFile(exposures(3)));
+
+		assertThat(entries).containsOnlyKeys("export.bin", "export.sig");
+		byte[] contents = entries.get("export.bin");
+		assertThat(new String(contents, 0, 16, StandardCharsets.US_ASCII)).isEqualTo("EK Export v1    ");
+		Export.TemporaryExposureKeyExport export = Export.TemporaryExposureKeyExport.parseFrom(Arrays.copyOfRange(contents, 16, contents.length));
+		assertThat(export.getKeysCount()).isEqualTo(3);
+		assertThat(export.getKeys(0).getKeyData().toByteArray()[0]).isLessThan(export.getKeys(1).getKeyData().toByteArray()[0]);
+		assertThat(export.getSignatureInfos(0).getVerificationKeyId()).isEqualTo("232");
+
+		Export.TEKSignatureList signatures = Export.TEKSignatureList.parseFrom(entries.get("export.sig"));
+		assertThat(signatures.getSignatures(0).getSignature().toByteArray()).isEqualTo(SIGNATURE);
+	}
+
+	@Test
+	public void zipLevelShouldBeApplied() throws Exception {
+		exportProperties.setZipLevel(0);
+		byte[] stored = marshalExportFile(exposures(100));
+		exportProperties.setZipLevel(9);
+		byte[] compressed = marshalExportFile(exposures(100));
+
+		assertThat(compressed.length).isLessThan(stored.length);
+		assertThat(unzip(compressed).get("export.bin")).isEqualTo(unzip(stored).get("export.bin"));
+	}
+
+	private byte[] marshalExportFile(List<Exposure> exposures) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		marshaller.marshalExportFile("AT", LocalDateTime.of(2020, 6, 1, 0, 0), LocalDateTime.of(2020, 6, 2, 0, 0), exposures, 1, 1, signatureInfos).writeTo(output);
+		return output.toByteArray();
+	}
+
+	private List<Exposure> exposures(int count) {
+		List<Exposure> exposures = new ArrayList<>();
+		for (int i = count - 1; i >= 0; i--) {
+			byte[] key = new byte[16];
+			key[0] = (byte) i;
+			exposures.add(new Exposure(Base64.getEncoder().encodeToString(key), null, "AT", 2650000, 144, "red-warning"));
+		}
+		return exposures;
+	}
+
+	private Map<String, byte[]> unzip(byte[] data) throws Exception {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(data))) {
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null) {
+				entries.put(entry.getName(), StreamUtils.copyToByteArray(zis));
+			}
+		}
+		return entries;
+	}
+
+}
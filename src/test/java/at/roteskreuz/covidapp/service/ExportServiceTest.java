@@ -0,0 +1,444 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.blobstore.BlobWriter;
+import at.roteskreuz.covidapp.blobstore.Blobstore;
+import at.roteskreuz.covidapp.config.ApplicationConfig;
+import at.roteskreuz.covidapp.domain.ExportConfig;
+import at.roteskreuz.covidapp.domain.ExportFile;
+import at.roteskreuz.covidapp.domain.ExportWindowState;
+import at.roteskreuz.covidapp.domain.Exposure;
+import at.roteskreuz.covidapp.model.ExportFileStatus;
+import at.roteskreuz.covidapp.model.ExportSummary;
+import at.roteskreuz.covidapp.properties.ExportProperties;
+import at.roteskreuz.covidapp.repository.ExportConfigRepository;
+import at.roteskreuz.covidapp.repository.ExportFileRepository;
+import at.roteskreuz.covidapp.repository.ExportWindowStateRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/*
+ * Tests the windows of the export with mocked repositories and blobstore
+ */
+public class ExportServiceTest {
+
+	private static final String REGION = "AT";
+	private static final String BUCKET = "bucket";
+	private static final String ROOT = "root";
+
+	private ExportProperties exportProperties;
+	private ExposureService exposureService;
+	private LockService lockService;
+	private Blobstore blobstore;
+	private ExportConfigRepository exportConfigRepository;
+	private ExportFileRepository exportFileRepository;
+	private ExportWindowStateRepository exportWindowStateRepository;
+	private ExportMarshaller exportMarshaller;
+	private CleanupService cleanupService;
+	private ThreadPoolTaskExecutor exportExecutor;
+	private ThreadPoolTaskExecutor exportBatchExecutor;
+	private SimpleMeterRegistry meterRegistry;
+	private ExportService exportService;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	//the repositories keep their entities in memory, so a second export sees the files and windows of the first one
+	private final Map<String, ExportFile> files = new LinkedHashMap<>();
+	private final Map<String, ExportWindowState> states = new HashMap<>();
+	//written batch files by object name, described as batch number|batch size|number of keys
+	private final Map<String, String> written = new ConcurrentHashMap<>();
+	private final List<JsonNode> indexFiles = new ArrayList<>();
+
+	private LocalDateTime startOfToday;
+	private LocalDateTime lastChange;
+	private int yesterday;
+	private int twoDaysAgo;
+	private List<Exposure> exposures;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		exportProperties = new ExportProperties();
+		exportProperties.setCreateTimeout(Duration.ofMinutes(5));
+		exportProperties.setWorkerTimeout(Duration.ofMinutes(1));
+		exportProperties.setMaxRecords(4);
+		exportProperties.setMinRecords(3);
+		exportProperties.setPaddingRange(1);
+		exportProperties.setReadPageSize(1000);
+		exportProperties.setTruncateWindow(Duration.ofDays(1));
+		exportProperties.setWindowPeriod(Duration.ofDays(3));
+		exportProperties.setMinWindowAge(Duration.ZERO);
+
+		exposureService = Mockito.mock(ExposureService.class);
+		lockService = Mockito.mock(LockService.class);
+		blobstore = Mockito.mock(Blobstore.class);
+		exportConfigRepository = Mockito.mock(ExportConfigRepository.class);
+		exportFileRepository = Mockito.mock(ExportFileRepository.class);
+		exportWindowStateRepository = Mockito.mock(ExportWindowStateRepository.class);
+		exportMarshaller = Mockito.mock(ExportMarshaller.class);
+		cleanupService = Mockito.mock(CleanupService.class);
+		meterRegistry = new SimpleMeterRegistry();
+		exportExecutor = executor();
+		exportBatchExecutor = executor();
+		exportService = new ExportService(exportProperties, exposureService, lockService, blobstore, objectMapper, exportConfigRepository,
+				exportFileRepository, exportWindowStateRepository, new Sha256Service(), new TimeCalculationService(), exportMarshaller,
+				cleanupService, Mockito.mock(MigrationService.class), exportExecutor, exportBatchExecutor, meterRegistry);
+
+		Mockito.when(exportConfigRepository.findAllByDate(Mockito.any())).thenReturn(Collections.singletonList(config()));
+		Mockito.when(lockService.acquireLock(Mockito.anyString(), Mockito.any())).thenReturn(LocalDateTime.now());
+		Mockito.when(exportMarshaller.marshalExportFile(Mockito.anyString(), Mockito.any(), Mockito.any(), Mockito.anyList(), Mockito.anyInt(), Mockito.anyInt(), Mockito.anyList()))
+				.thenAnswer(invocation -> {
+					List<Exposure> group = invocation.getArgument(3);
+					String description = String.format("%d|%d|%d", invocation.<Integer>getArgument(4), invocation.<Integer>getArgument(5), group.size());
+					BlobWriter writer = output -> output.write(description.getBytes(StandardCharsets.UTF_8));
+					return writer;
+				});
+		Mockito.when(blobstore.createObjectAsync(Mockito.anyString(), Mockito.anyString(), Mockito.any(BlobWriter.class)))
+				.thenAnswer(invocation -> {
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					invocation.<BlobWriter>getArgument(2).writeTo(output);
+					written.put(invocation.getArgument(1), new String(output.toByteArray(), StandardCharsets.UTF_8));
+					return CompletableFuture.completedFuture(null);
+				});
+		Mockito.doAnswer(invocation -> indexFiles.add(objectMapper.readTree(invocation.<byte[]>getArgument(2))))
+				.when(blobstore).createObject(Mockito.anyString(), Mockito.anyString(), Mockito.any(byte[].class));
+
+		Mockito.when(exportFileRepository.save(Mockito.any(ExportFile.class))).thenAnswer(invocation -> {
+			ExportFile file = invocation.getArgument(0);
+			files.put(file.getFilename(), file);
+			return file;
+		});
+		Mockito.when(exportFileRepository.findAllById(Mockito.anyIterable())).thenAnswer(invocation -> {
+			List<ExportFile> result = new ArrayList<>();
+			invocation.<Iterable<String>>getArgument(0).forEach(filename -> Optional.ofNullable(files.get(filename)).ifPresent(result::add));
+			return result;
+		});
+		Mockito.when(exportFileRepository.findFirstByConfigAndFilenameEndingWithOrderByTimestampDesc(Mockito.any(), Mockito.anyString()))
+				.thenAnswer(invocation -> files.values().stream().filter(f -> f.getFilename().endsWith(invocation.getArgument(1))).reduce((first, second) -> second));
+		Mockito.when(exportWindowStateRepository.save(Mockito.any(ExportWindowState.class))).thenAnswer(invocation -> {
+			ExportWindowState state = invocation.getArgument(0);
+			states.put(state.getId(), state);
+			return state;
+		});
+		Mockito.when(exportWindowStateRepository.findById(Mockito.anyString())).thenAnswer(invocation -> Optional.ofNullable(states.get(invocation.<String>getArgument(0))));
+		Mockito.when(exportWindowStateRepository.existsById(Mockito.anyString())).thenAnswer(invocation -> states.containsKey(invocation.<String>getArgument(0)));
+		Mockito.doAnswer(invocation -> states.remove(invocation.<String>getArgument(0))).when(exportWindowStateRepository).deleteById(Mockito.anyString());
+
+		startOfToday = LocalDate.now().atStartOfDay();
+		lastChange = LocalDateTime.now();
+		yesterday = intervalNumber(startOfToday.minusDays(1));
+		twoDaysAgo = intervalNumber(startOfToday.minusDays(2));
+		exposures = new ArrayList<>();
+		exposures.add(exposure("key0", twoDaysAgo + 3));
+		for (int i = 1; i <= 6; i++) {
+			exposures.add(exposure("key" + i, yesterday + i));
+		}
+		mockExposures(exposures, null);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		exportExecutor.shutdown();
+		exportBatchExecutor.shutdown();
+	}
+
+	@Test
+	public void windowsShouldBeSplitIntoBatchesAndPadded() throws Exception {
+		exportService.export();
+
+		//7 keys in batches of at most 4, the last batch is padded to the minimum of 3 keys
+		String fullBig = "batch_full14-" + intervalNumber(startOfToday.minusDays(14));
+		assertThat(batches(fullBig)).containsExactly("1|2|4", "2|2|3");
+		String fullMedium = "batch_full7-" + intervalNumber(startOfToday.minusDays(7));
+		assertThat(batches(fullMedium)).containsExactly("1|2|4", "2|2|3");
+		assertThat(batches("batch-" + twoDaysAgo)).containsExactly("1|1|3");
+		assertThat(batches("batch-" + yesterday)).containsExactly("1|2|4", "2|2|3");
+		assertThat(written).hasSize(7);
+
+		JsonNode index = indexFiles.get(0);
+		assertThat(index.get("full_14_batch").get("batch_file_paths").size()).isEqualTo(2);
+		assertThat(index.get("full_7_batch").get("batch_file_paths").size()).isEqualTo(2);
+		assertThat(index.get("daily_batches").size()).isEqualTo(2);
+		assertThat(index.get("daily_batches").get(0).get("interval").asLong()).isEqualTo(twoDaysAgo);
+		assertThat(index.get("daily_batches").get(1).get("interval").asLong()).isEqualTo(yesterday);
+		assertThat(index.get("daily_batches").get(1).get("batch_file_paths").get(0).asText()).startsWith("/" + BUCKET + "/" + ROOT + "/");
+		assertThat(index.has("delta_batch")).isFalse();
+		assertThat(index.has("window_batches")).isFalse();
+	}
+
+	@Test
+	public void unchangedWindowsShouldBeReused() throws Exception {
+		exportService.export();
+		written.clear();
+		exportService.export();
+
+		assertThat(written).isEmpty();
+		Mockito.verify(exposureService, Mockito.times(1)).findExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.any(), Mockito.anyInt());
+		assertThat(indexFiles.get(1).get("daily_batches")).isEqualTo(indexFiles.get(0).get("daily_batches"));
+		assertThat(indexFiles.get(1).get("full_14_batch")).isEqualTo(indexFiles.get(0).get("full_14_batch"));
+		assertThat(meterRegistry.get("export.windows").tag("outcome", "reused").counter().count()).isEqualTo(4);
+	}
+
+	@Test
+	public void changedWindowsShouldBeWrittenAgain() throws Exception {
+		exportService.export();
+		written.clear();
+		//a key of yesterday was updated
+		mockExposures(exposures, exposures.get(6));
+		exportService.export();
+
+		assertThat(batches("batch-" + twoDaysAgo)).isEmpty();
+		assertThat(batches("batch-" + yesterday)).hasSize(2);
+		assertThat(batches("batch_full14-")).hasSize(2);
+		assertThat(batches("batch_full7-")).hasSize(2);
+		assertThat(indexFiles.get(1).get("daily_batches").get(0)).isEqualTo(indexFiles.get(0).get("daily_batches").get(0));
+	}
+
+	@Test
+	public void windowWithDeletedFileShouldBeWrittenAgain() throws Exception {
+		exportService.export();
+		written.clear();
+		String deleted = indexFiles.get(0).get("daily_batches").get(0).get("batch_file_paths").get(0).asText().substring(BUCKET.length() + 2);
+		files.get(deleted).setStatus(ExportFileStatus.EXPORT_FILE_DELETED);
+		exportService.export();
+
+		assertThat(batches("batch-" + twoDaysAgo)).containsExactly("1|1|3");
+		assertThat(batches("batch-" + yesterday)).isEmpty();
+		assertThat(written).hasSize(1);
+	}
+
+	@Test
+	public void deltaShouldContainTheChangesSinceThePreviousIndex() throws Exception {
+		exportService.export();
+		long previousIndexTimestamp = files.values().stream().filter(f -> f.getFilename().endsWith("/index.json")).findFirst().get().getTimestamp();
+		//the delta starts the commit lag before the previous index file
+		LocalDateTime changedSince = LocalDateTime.ofEpochSecond(previousIndexTimestamp, 0, ZoneOffset.UTC).minus(exportProperties.getDeltaCommitLag());
+		Exposure changed = exposures.get(6);
+		Mockito.when(exposureService.countChangedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.eq(changedSince)))
+				.thenReturn(Collections.singletonMap(changed.getIntervalNumber(), 1L));
+		Mockito.when(exposureService.findChangedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.eq(changedSince), Mockito.isNull(), Mockito.anyInt()))
+				.thenReturn(new ArrayList<>(Collections.singletonList(changed)));
+		written.clear();
+		exportService.export();
+
+		assertThat(batches("batch_delta-")).containsExactly("1|1|3");
+		JsonNode delta = indexFiles.get(1).get("delta_batch");
+		assertThat(delta.get("interval").asLong()).isEqualTo(intervalNumber(changedSince));
+		assertThat(delta.get("batch_file_paths").size()).isEqualTo(1);
+	}
+
+	@Test
+	public void finalisedArrivalWindowsShouldBeReused() throws Exception {
+		exportProperties.setWindowBatches(true);
+		Mockito.when(exposureService.countCreatedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.any())).thenReturn(1L);
+		Mockito.when(exposureService.findCreatedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.any(), Mockito.isNull(), Mockito.anyInt()))
+				.thenAnswer(invocation -> new ArrayList<>(exposures.subList(1, 2)));
+		exportService.export();
+
+		assertThat(batches("batch_window-")).containsExactly("1|1|3", "1|1|3", "1|1|3");
+		assertThat(indexFiles.get(0).get("window_batches").size()).isEqualTo(3);
+		assertThat(indexFiles.get(0).get("window_batches").get(2).get("interval").asLong()).isEqualTo(yesterday);
+
+		written.clear();
+		//the arrival windows do not depend on the summary of the exposures
+		mockExposures(exposures, exposures.get(6));
+		exportService.export();
+
+		assertThat(batches("batch_window-")).isEmpty();
+		Mockito.verify(exposureService, Mockito.times(3)).countCreatedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.any());
+		assertThat(indexFiles.get(1).get("window_batches")).isEqualTo(indexFiles.get(0).get("window_batches"));
+	}
+
+	@Test
+	public void windowExportShouldReuseTheWindowsWithoutSummary() throws Exception {
+		exportProperties.setWindowBatches(true);
+		exportService.export();
+		written.clear();
+		//a changed key does not make the window export write the daily and full batches
+		mockExposures(exposures, exposures.get(6));
+		exportService.exportWindows();
+
+		Mockito.verify(exposureService, Mockito.times(1)).summarizeExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any());
+		assertThat(written).isEmpty();
+		assertThat(indexFiles.get(1).get("daily_batches")).isEqualTo(indexFiles.get(0).get("daily_batches"));
+	}
+
+	@Test
+	public void windowExportWithoutPreviousExportShouldExportAllWindows() throws Exception {
+		exportProperties.setWindowBatches(true);
+		exportService.exportWindows();
+
+		Mockito.verify(exposureService, Mockito.times(1)).summarizeExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any());
+		assertThat(batches("batch-" + yesterday)).containsExactly("1|2|4", "2|2|3");
+		assertThat(batches("batch_full14-")).hasSize(2);
+	}
+
+	@Test
+	public void exposuresStoredAfterTheCountShouldBeReported() throws Exception {
+		//the last key was committed after the exposures were counted
+		mockExposures(exposures.subList(0, 6), null);
+		Mockito.when(exposureService.findExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.isNull(), Mockito.anyInt()))
+				.thenAnswer(invocation -> new ArrayList<>(exposures));
+		exportService.export();
+
+		double dropped = meterRegistry.get("export.keys.dropped").counters().stream().mapToDouble(Counter::count).sum();
+		//the key belongs to both full windows and the daily window of yesterday
+		assertThat(dropped).isEqualTo(3);
+		assertThat(batches("batch-" + yesterday)).containsExactly("1|2|4", "2|2|3");
+		assertThat(states).doesNotContainKey("1:batch:" + yesterday);
+		assertThat(states).containsKey("1:batch:" + twoDaysAgo);
+	}
+
+	@Test
+	public void nextDeltaShouldStartAtTheFirstDroppedChange() throws Exception {
+		exportService.export();
+		long previousIndexTimestamp = files.values().stream().filter(f -> f.getFilename().endsWith("/index.json")).findFirst().get().getTimestamp();
+		LocalDateTime changedSince = LocalDateTime.ofEpochSecond(previousIndexTimestamp, 0, ZoneOffset.UTC).minus(exportProperties.getDeltaCommitLag());
+		//one change was counted, the second one was committed after the count
+		Exposure counted = exposures.get(5);
+		Exposure late = exposures.get(6);
+		late.setCreatedAt(changedSince.minusMinutes(1));
+		Mockito.when(exposureService.countChangedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.eq(changedSince)))
+				.thenReturn(Collections.singletonMap(counted.getIntervalNumber(), 1L));
+		Mockito.when(exposureService.findChangedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.eq(changedSince), Mockito.isNull(), Mockito.anyInt()))
+				.thenReturn(new ArrayList<>(Arrays.asList(counted, late)));
+		exportService.export();
+		assertThat(states.get("1:batch_delta").getUpdatedAt()).isEqualTo(late.getCreatedAt());
+
+		Mockito.when(exposureService.countChangedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.eq(late.getCreatedAt())))
+				.thenReturn(Collections.singletonMap(late.getIntervalNumber(), 1L));
+		Mockito.when(exposureService.findChangedExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.eq(late.getCreatedAt()), Mockito.isNull(), Mockito.anyInt()))
+				.thenReturn(new ArrayList<>(Collections.singletonList(late)));
+		written.clear();
+		exportService.export();
+
+		assertThat(batches("batch_delta-")).containsExactly("1|1|3");
+		assertThat(indexFiles.get(2).get("delta_batch").get("interval").asLong()).isEqualTo(intervalNumber(late.getCreatedAt()));
+		assertThat(states).doesNotContainKey("1:batch_delta");
+	}
+
+	@Test
+	public void filesWrittenBesideAFailedUploadShouldBeSaved() throws Exception {
+		AtomicBoolean failed = new AtomicBoolean();
+		Mockito.when(blobstore.createObjectAsync(Mockito.anyString(), Mockito.anyString(), Mockito.any(BlobWriter.class)))
+				.thenAnswer(invocation -> {
+					if (failed.compareAndSet(false, true)) {
+						CompletableFuture<Void> result = new CompletableFuture<>();
+						result.completeExceptionally(new IOException("upload failed"));
+						return result;
+					}
+					written.put(invocation.getArgument(1), "");
+					return CompletableFuture.completedFuture(null);
+				});
+		exportService.export();
+
+		//the written files are cleaned up with the old files, no index refers to them
+		assertThat(written).isNotEmpty();
+		assertThat(files.keySet()).containsExactlyInAnyOrderElementsOf(written.keySet());
+		assertThat(indexFiles).isEmpty();
+	}
+
+	@Test
+	public void exportsExceedingTheWorkerTimeoutShouldBeCancelled() throws Exception {
+		exportProperties.setWorkerTimeout(Duration.ofMillis(200));
+		ExportConfig second = config();
+		second.setId(2L);
+		Mockito.when(exportConfigRepository.findAllByDate(Mockito.any())).thenReturn(Arrays.asList(config(), second));
+		CountDownLatch interrupted = new CountDownLatch(2);
+		Mockito.when(lockService.acquireLock(Mockito.anyString(), Mockito.any())).thenAnswer(invocation -> {
+			try {
+				Thread.sleep(10000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				throw e;
+			}
+			return LocalDateTime.now();
+		});
+		long start = System.nanoTime();
+		exportService.export();
+
+		//both configs share one deadline
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+		assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(indexFiles).isEmpty();
+	}
+
+	/**
+	 * Mocks the summary and the reading of the exposures, the interval number of the updated exposure changes later than the others
+	 */
+	private void mockExposures(List<Exposure> exportedExposures, Exposure updated) {
+		ExportSummary summary = new ExportSummary();
+		exportedExposures.stream()
+				.collect(Collectors.groupingBy(Exposure::getIntervalNumber, Collectors.counting()))
+				.forEach((intervalNumber, count) -> summary.add(intervalNumber, count,
+						updated != null && intervalNumber.equals(updated.getIntervalNumber()) ? lastChange.plusMinutes(1) : lastChange));
+		Mockito.when(exposureService.summarizeExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any())).thenReturn(summary);
+		//a fresh list on every read, the padding is added to the last group
+		Mockito.when(exposureService.findExposuresForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.isNull(), Mockito.anyInt()))
+				.thenAnswer(invocation -> new ArrayList<>(exportedExposures));
+	}
+
+	private List<String> batches(String filePrefix) {
+		return written.entrySet().stream()
+				.filter(e -> e.getKey().substring(e.getKey().lastIndexOf('/') + 1).startsWith(filePrefix))
+				.sorted(Map.Entry.comparingByKey())
+				.map(Map.Entry::getValue)
+				.collect(Collectors.toList());
+	}
+
+	private ExportConfig config() {
+		ExportConfig config = new ExportConfig();
+		config.setId(1L);
+		config.setBucketName(BUCKET);
+		config.setFilenameRoot(ROOT);
+		config.setRegion(REGION);
+		config.setPeriodRedWarnings(Duration.ofDays(14));
+		config.setPeriodYellowWarnings(Duration.ofDays(14));
+		config.setPeriodOfBigFile(Duration.ofDays(14));
+		config.setPeriodOfMediumFile(Duration.ofDays(7));
+		config.setPeriodOfDailyFiles(Duration.ofDays(2));
+		config.setSignatureInfos(Collections.emptyList());
+		return config;
+	}
+
+	private Exposure exposure(String key, int intervalNumber) {
+		return new Exposure(key, null, REGION, intervalNumber, 144, "red-warning");
+	}
+
+	private int intervalNumber(LocalDateTime timestamp) {
+		return (int) (timestamp.toEpochSecond(ZoneOffset.UTC) / ApplicationConfig.INTERVAL_LENGTH.getSeconds());
+	}
+
+	private ThreadPoolTaskExecutor executor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(2);
+		executor.initialize();
+		return executor;
+	}
+}
@@ -1,9 +1,12 @@
 package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.domain.Exposure;
+import at.roteskreuz.covidapp.model.ExportSummary;
 import at.roteskreuz.covidapp.repository.ExposureRepository;
 import at.roteskreuz.covidapp.util.ExposureUtil;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -13,6 +16,7 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 
 /*
  * @author Zoltán Puskai
@@ -27,8 +31,13 @@ public class ExposureServiceTest {
 
 	/*
 	public void save(Exposure exposure) {
-	public List<Exposure> findExposuresForExport(LocalDateTime start, LocalDateTime end, String diagnosisType, String region) {
-	public List<Exposure> cleanUpExposures(int intervalNumber, String region) {
+	public void saveAll(List<Exposure> exposures) {
+	public List<Exposure> findExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore, Exposure last, int pageSize) {
+	public ExportSummary summarizeExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore) {
+	public Map<Integer, Long> countChangedExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore, LocalDateTime changedSince) {
+	public List<Exposure> findChangedExposuresForExport(LocalDateTime fromRed, LocalDateTime fromYellow, LocalDateTime until, String region, LocalDateTime createdBefore, LocalDateTime changedSince, Exposure last, int pageSize) {
+	public long cleanUpExposures(int intervalNumber, String region, int chunkSize) {
+	public int migrateRegions() {
 	 */
 	@Test
 	public void saveShouldCallRepositorySave() {
@@ -38,25 +47,112 @@ public class ExposureServiceTest {
 		Mockito.verify(repository, Mockito.times(1)).save(exposure);
 	}
 	
+	@Test
+	public void saveAllShouldLoadExistingExposuresOnceAndInsertNewOnes() {
+		List<Exposure> exposures = ExposureUtil.createExposures(3);
+		Exposure existing = new Exposure(exposures.get(0).getExposureKey(), exposures.get(0).getPassword(), ",AT,", exposures.get(0).getIntervalNumber(), exposures.get(0).getIntervalCount(), "yellow-warning");
+		Mockito.when(repository.findAllById(Mockito.any())).thenReturn(Arrays.asList(existing));
+		service.saveAll(exposures);
+		Mockito.verify(repository, Mockito.times(1)).findAllById(Mockito.any());
+		Mockito.verify(repository, Mockito.times(1)).saveAll(Arrays.asList(exposures.get(1), exposures.get(2)));
+		Assertions.assertThat(existing.getDiagnosisType()).isEqualTo(exposures.get(0).getDiagnosisType());
+		Assertions.assertThat(existing.getUpdatedAt()).isNotNull();
+		Assertions.assertThat(exposures.get(1).isNew()).isTrue();
+	}
+
+	@Test
+	public void saveAllShouldUpdateExposuresInsertedConcurrently() {
+		List<Exposure> exposures = ExposureUtil.createExposures(2);
+		Exposure concurrent = new Exposure(exposures.get(0).getExposureKey(), exposures.get(0).getPassword(), ",AT,", exposures.get(0).getIntervalNumber(), exposures.get(0).getIntervalCount(), "yellow-warning");
+		Mockito.when(repository.findAllById(Mockito.any())).thenReturn(Collections.emptyList(), Arrays.asList(concurrent));
+		Mockito.when(repository.saveAll(Mockito.any())).thenThrow(new DataIntegrityViolationException("duplicate key")).thenReturn(Collections.emptyList());
+		service.saveAll(exposures);
+		Mockito.verify(repository, Mockito.times(2)).findAllById(Mockito.any());
+		Mockito.verify(repository, Mockito.times(1)).saveAll(Arrays.asList(exposures.get(1)));
+		Assertions.assertThat(concurrent.getUpdatedAt()).isNotNull();
+		Assertions.assertThat(exposures.get(1).isNew()).isTrue();
+	}
+
 	@Test
 	public void  findExposuresForExportShouldSearchThroughRepository() {
 		Random random = new Random();
 		int exposuresCount = random.nextInt(3);
 		List<Exposure> exposures = ExposureUtil.createExposures(exposuresCount);
-		Mockito.when(repository.findByIntervalNumberGreaterThanEqualAndIntervalNumberLessThanAndDiagnosisTypeAndRegionsLike(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(exposures);
-		List<Exposure> exposuresFound  = service.findExposuresForExport(LocalDateTime.now().minusDays(1), LocalDateTime.now(), "red-warning", "AT");
-		Assertions.assertThat(exposures == exposuresFound);
-		Mockito.verify(repository, Mockito.times(1)).findByIntervalNumberGreaterThanEqualAndIntervalNumberLessThanAndDiagnosisTypeAndRegionsLike(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+		Mockito.when(repository.findForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(exposures);
+		List<Exposure> exposuresFound  = service.findExposuresForExport(LocalDateTime.now().minusDays(1), LocalDateTime.now().minusDays(2), LocalDateTime.now(), "AT", LocalDateTime.now(), null, 10);
+		Assertions.assertThat(exposuresFound).isSameAs(exposures);
+		Mockito.verify(repository, Mockito.times(1)).findForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.eq("AT"), Mockito.any(), Mockito.any(), Mockito.eq(""), Mockito.any());
+	}
+
+	@Test
+	public void  summarizeExposuresForExportShouldGroupByIntervalNumber() {
+		LocalDateTime lastChange = LocalDateTime.of(2020, 6, 1, 12, 0);
+		List<Object[]> rows = Arrays.asList(new Object[]{2650038, 3L, lastChange}, new Object[]{2650039, 5L, Timestamp.valueOf(lastChange.plusHours(1))});
+		Mockito.when(repository.countForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(rows);
+		ExportSummary summary = service.summarizeExposuresForExport(LocalDateTime.now().minusDays(1), LocalDateTime.now().minusDays(2), LocalDateTime.now(), "AT", LocalDateTime.now());
+		Assertions.assertThat(summary.getCounts()).containsEntry(2650038, 3L).containsEntry(2650039, 5L).hasSize(2);
+		Assertions.assertThat(summary.getLastChanges()).containsEntry(2650038, lastChange).containsEntry(2650039, lastChange.plusHours(1));
 	}
 	
+	@Test
+	public void  findChangedExposuresForExportShouldSearchSinceTheGivenTimestamp() {
+		LocalDateTime changedSince = LocalDateTime.now().minusHours(1);
+		List<Object[]> rows = Arrays.asList(new Object[]{2650038, 2L}, new Object[]{2650039, 1L});
+		Mockito.when(repository.countChangedForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.eq(changedSince))).thenReturn(rows);
+		Assertions.assertThat(service.countChangedExposuresForExport(LocalDateTime.now().minusDays(1), LocalDateTime.now().minusDays(2), LocalDateTime.now(), "AT", LocalDateTime.now(), changedSince))
+				.containsEntry(2650038, 2L).containsEntry(2650039, 1L).hasSize(2);
+
+		List<Exposure> exposures = ExposureUtil.createExposures(2);
+		Mockito.when(repository.findChangedForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(exposures);
+		Assertions.assertThat(service.findChangedExposuresForExport(LocalDateTime.now().minusDays(1), LocalDateTime.now().minusDays(2), LocalDateTime.now(), "AT", LocalDateTime.now(), changedSince, null, 10)).isSameAs(exposures);
+		Mockito.verify(repository, Mockito.times(1)).findChangedForExport(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.eq("AT"), Mockito.any(), Mockito.eq(changedSince), Mockito.any(), Mockito.eq(""), Mockito.any());
+	}
+
 	@Test
 	public void cleanupShouldDeleteThroughRepository() {
 		Random random = new Random();
 		int intervalNumber = random.nextInt(20);
 		String region = "AT";
-		String regionQuery = "%," + region + ",%";
-		Mockito.when(repository.deleteAllByIntervalNumberIsLessThanAndRegionsLike(intervalNumber, regionQuery)).thenReturn(Collections.EMPTY_LIST);
-		service.cleanUpExposures(intervalNumber, region);
-		Mockito.verify(repository, Mockito.times(1)).deleteAllByIntervalNumberIsLessThanAndRegionsLike(intervalNumber, regionQuery);
+		List<String> chunk = Arrays.asList("key1", "key2");
+		Mockito.when(repository.findKeysForCleanup(Mockito.eq(intervalNumber), Mockito.eq(region), Mockito.any()))
+				.thenReturn(chunk)
+				.thenReturn(Arrays.asList("key3"));
+		Mockito.when(repository.deleteByExposureKeys(Mockito.any())).thenAnswer(i -> ((List) i.getArgument(0)).size());
+		Assertions.assertThat(service.cleanUpExposures(intervalNumber, region, 2)).isEqualTo(3);
+		Mockito.verify(repository, Mockito.times(2)).findKeysForCleanup(Mockito.eq(intervalNumber), Mockito.eq(region), Mockito.any());
+		Mockito.verify(repository, Mockito.times(1)).deleteRegionsByExposureKeys(chunk);
+		Mockito.verify(repository, Mockito.times(1)).deleteByExposureKeys(chunk);
+		Mockito.verify(repository, Mockito.times(1)).deleteByExposureKeys(Arrays.asList("key3"));
+	}
+
+	@Test
+	public void exposureShouldNormaliseRegions() {
+		Exposure exposure = new Exposure("key", "password", ",AT, HU,", 2650038, 144, "red-warning");
+		Assertions.assertThat(exposure.getRegionSet()).containsExactlyInAnyOrder("AT", "HU");
+	}
+
+	@Test
+	public void migrateRegionsShouldFillRegionSet() {
+		Exposure exposure = new Exposure();
+		exposure.setExposureKey("key");
+		exposure.setRegions(",AT,");
+		exposure.getRegionSet().clear();
+		Mockito.when(repository.findWithoutRegionSet(Mockito.eq(""), Mockito.any())).thenReturn(Arrays.asList(exposure));
+		Assertions.assertThat(service.migrateRegions()).isEqualTo(1);
+		Assertions.assertThat(exposure.getRegionSet()).containsExactly("AT");
+		Mockito.verify(repository, Mockito.times(1)).saveAll(Arrays.asList(exposure));
+	}
+
+	@Test
+	public void migrateRecentRegionsShouldMarkTheExposuresAsUpdated() {
+		Exposure exposure = new Exposure();
+		exposure.setExposureKey("key");
+		exposure.setRegions(",AT,");
+		exposure.getRegionSet().clear();
+		Mockito.when(repository.findCreatedWithoutRegionSet(Mockito.any(), Mockito.eq(""), Mockito.any())).thenReturn(Arrays.asList(exposure));
+		Assertions.assertThat(service.migrateRecentRegions()).isEqualTo(1);
+		Assertions.assertThat(exposure.getRegionSet()).containsExactly("AT");
+		Assertions.assertThat(exposure.getUpdatedAt()).isNotNull();
+		Mockito.verify(repository, Mockito.times(1)).saveAll(Arrays.asList(exposure));
 	}
 }
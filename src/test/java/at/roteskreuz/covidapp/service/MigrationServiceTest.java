@@ -0,0 +1,85 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.domain.Migration;
+import at.roteskreuz.covidapp.exception.LockNotAcquiredException;
+import at.roteskreuz.covidapp.repository.MigrationRepository;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+@SpringBootTest
+public class MigrationServiceTest {
+
+	@Autowired
+	private MigrationService migrationService;
+	@MockBean
+	private MigrationRepository migrationRepository;
+	@MockBean
+	private LockService lockService;
+	@MockBean
+	private ExposureService exposureService;
+
+	@BeforeEach
+	public void clearStartupMigration() {
+		//the migration already ran once when the context was started
+		Mockito.clearInvocations(migrationRepository, lockService, exposureService);
+	}
+
+	@Test
+	public void completedMigrationShouldBeSkipped() {
+		Mockito.when(migrationRepository.existsById(MigrationService.REGIONS_MIGRATION)).thenReturn(true);
+		migrationService.migrate();
+		Mockito.verify(exposureService, Mockito.never()).migrateRegions();
+		Mockito.verifyNoInteractions(lockService);
+	}
+
+	@Test
+	public void migrationShouldBeRecordedWhenCompleted() throws Exception {
+		LocalDateTime expires = LocalDateTime.now();
+		Mockito.when(lockService.acquireLock(Mockito.anyString(), Mockito.any(Duration.class))).thenReturn(expires);
+		migrationService.migrate();
+		Mockito.verify(exposureService, Mockito.times(1)).migrateRegions();
+		Mockito.verify(migrationRepository, Mockito.times(1)).save(Mockito.any(Migration.class));
+		Mockito.verify(lockService, Mockito.times(1)).releaseLock(Mockito.anyString(), Mockito.eq(expires));
+	}
+
+	@Test
+	public void migrationShouldNotBeRecordedWhileExposuresWithoutRegionsAreStored() throws Exception {
+		Mockito.when(lockService.acquireLock(Mockito.anyString(), Mockito.any(Duration.class))).thenReturn(LocalDateTime.now());
+		Mockito.when(exposureService.hasExposuresWithoutRegionSet()).thenReturn(true);
+		migrationService.migrate();
+		Mockito.verify(exposureService, Mockito.times(1)).migrateRegions();
+		Mockito.verify(migrationRepository, Mockito.never()).save(Mockito.any(Migration.class));
+	}
+
+	@Test
+	public void recentMigrationShouldBeSkippedWhenRunningOnAnotherInstance() throws Exception {
+		Mockito.when(lockService.acquireLock(Mockito.anyString(), Mockito.any(Duration.class))).thenThrow(new LockNotAcquiredException());
+		migrationService.migrateRecentRegions();
+		Mockito.verify(exposureService, Mockito.never()).migrateRecentRegions();
+	}
+
+	@Test
+	public void failedMigrationShouldNotStopTheApplication() throws Exception {
+		LocalDateTime expires = LocalDateTime.now();
+		Mockito.when(lockService.acquireLock(Mockito.anyString(), Mockito.any(Duration.class))).thenReturn(expires);
+		Mockito.when(exposureService.migrateRegions()).thenThrow(new IllegalStateException("Database unavailable"));
+		migrationService.migrate();
+		Mockito.verify(migrationRepository, Mockito.never()).save(Mockito.any(Migration.class));
+		Mockito.verify(lockService, Mockito.times(1)).releaseLock(Mockito.anyString(), Mockito.eq(expires));
+	}
+
+	@Test
+	public void migrationRunningOnAnotherInstanceShouldBeSkipped() throws Exception {
+		Mockito.when(lockService.acquireLock(Mockito.anyString(), Mockito.any(Duration.class))).thenThrow(new LockNotAcquiredException());
+		migrationService.migrate();
+		Mockito.verify(exposureService, Mockito.never()).migrateRegions();
+		Mockito.verify(migrationRepository, Mockito.never()).save(Mockito.any(Migration.class));
+	}
+
+}
@@ -0,0 +1,205 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.exception.PublishQueueFullException;
+import at.roteskreuz.covidapp.model.Publish;
+import at.roteskreuz.covidapp.properties.PublishProperties;
+import at.roteskreuz.covidapp.util.PublishUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+/*
+ * Tests the write-behind queue of publish requests
+ */
+public class PublishQueueServiceTest {
+
+	@TempDir
+	Path spillDirectory;
+
+	private PublishProperties publishProperties;
+	private SimpleMeterRegistry meterRegistry;
+
+	@BeforeEach
+	public void setUp() {
+		publishProperties = new PublishProperties();
+		publishProperties.setWriteBehind(true);
+		publishProperties.setWriteBehindQueueCapacity(2);
+		publishProperties.setWriteBehindBatchSize(10);
+		meterRegistry = new SimpleMeterRegistry();
+	}
+
+	@Test
+	public void fullQueueShouldRejectPublish() throws Exception {
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		queue.enqueue(PublishUtil.createPublish(1));
+		queue.enqueue(PublishUtil.createPublish(1));
+
+		assertThatThrownBy(() -> queue.enqueue(PublishUtil.createPublish(1))).isInstanceOf(PublishQueueFullException.class);
+		assertThat(meterRegistry.get("publish.queue.rejected").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("publish.queue.size").gauge().value()).isEqualTo(2);
+	}
+
+	@Test
+	public void drainShouldStoreQueuedPublishesInOneBatch() throws Exception {
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		Publish publish = PublishUtil.createPublish(2);
+		queue.enqueue(publish);
+		queue.enqueue(PublishUtil.createPublish(3));
+
+		List<List<Publish>> batches = new ArrayList<>();
+		assertThat(queue.drain(batches::add)).isEqualTo(2);
+		assertThat(batches).hasSize(1);
+		assertThat(batches.get(0).get(0)).isSameAs(publish);
+		assertThat(publish.getVerificationPayload()).isNull();
+		assertThat(queue.drain(batches::add)).isEqualTo(0);
+	}
+
+	@Test
+	public void failedDrainShouldKeepPublishesQueued() throws Exception {
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		queue.enqueue(PublishUtil.createPublish(1));
+
+		assertThatThrownBy(() -> queue.drain(batch -> {
+			throw new DataAccessResourceFailureException("database is down");
+		})).isInstanceOf(DataAccessResourceFailureException.class);
+
+		assertThat(meterRegistry.get("publish.queue.failed").counter().count()).isEqualTo(1);
+		assertThat(queue.drain(batch -> { })).isEqualTo(1);
+	}
+
+	@Test
+	public void unavailableDatabaseShouldNotCountAttempts() throws Exception {
+		publishProperties.setWriteBehindMaxAttempts(1);
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		queue.enqueue(PublishUtil.createPublish(1));
+		queue.enqueue(PublishUtil.createPublish(1));
+
+		for (int i = 0; i < 3; i++) {
+			assertThatThrownBy(() -> queue.drain(batch -> {
+				throw new DataAccessResourceFailureException("database is down");
+			})).isInstanceOf(DataAccessResourceFailureException.class);
+		}
+
+		assertThat(meterRegistry.get("publish.queue.dead.lettered").counter().count()).isEqualTo(0);
+		assertThat(queue.drain(batch -> { })).isEqualTo(2);
+	}
+
+	@Test
+	public void constraintViolationShouldCountAttempts() throws Exception {
+		publishProperties.setWriteBehindMaxAttempts(1);
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		queue.enqueue(PublishUtil.createPublish(1));
+
+		assertThatThrownBy(() -> queue.drain(batch -> {
+			throw new DataIntegrityViolationException("duplicate key");
+		})).isInstanceOf(DataIntegrityViolationException.class);
+
+		assertThat(meterRegistry.get("publish.queue.dead.lettered").counter().count()).isEqualTo(1);
+		assertThat(queue.drain(batch -> { })).isEqualTo(0);
+	}
+
+	@Test
+	public void failedPublishesShouldBeKeptWhenTheQueueFilledUp() throws Exception {
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		queue.enqueue(PublishUtil.createPublish(1));
+		queue.enqueue(PublishUtil.createPublish(1));
+
+		//new requests arrive while the batch fails
+		Consumer<List<Publish>> store = batch -> {
+			if (batch.size() > 1) {
+				try {
+					queue.enqueue(PublishUtil.createPublish(1));
+					queue.enqueue(PublishUtil.createPublish(1));
+				} catch (PublishQueueFullException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			throw new DataAccessResourceFailureException("database is down");
+		};
+		assertThatThrownBy(() -> queue.drain(store)).isInstanceOf(DataAccessResourceFailureException.class);
+
+		assertThat(meterRegistry.get("publish.queue.size").gauge().value()).isEqualTo(4);
+		assertThat(queue.drain(batch -> { })).isEqualTo(4);
+	}
+
+	@Test
+	public void failingPublishShouldNotBlockTheOthers() throws Exception {
+		publishProperties.setWriteBehindQueueCapacity(10);
+		publishProperties.setWriteBehindMaxAttempts(2);
+		publishProperties.setWriteBehindSpillDirectory(spillDirectory.toString());
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		Publish bad = PublishUtil.createPublish(1);
+		queue.enqueue(PublishUtil.createPublish(1));
+		queue.enqueue(bad);
+		queue.enqueue(PublishUtil.createPublish(1));
+		List<Publish> stored = new ArrayList<>();
+		Consumer<List<Publish>> store = batch -> {
+			if (batch.contains(bad)) {
+				throw new IllegalStateException("constraint violation");
+			}
+			stored.addAll(batch);
+		};
+
+		assertThat(queue.drain(store)).isEqualTo(2);
+		assertThat(stored).hasSize(2).doesNotContain(bad);
+
+		//the second failure of the bad request dead-letters it, the request behind it is stored
+		queue.enqueue(PublishUtil.createPublish(1));
+		assertThat(queue.drain(store)).isEqualTo(1);
+		assertThat(stored).hasSize(3).doesNotContain(bad);
+		assertThat(meterRegistry.get("publish.queue.dead.lettered").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("publish.queue.size").gauge().value()).isEqualTo(0);
+		assertThat(countFiles()).isEqualTo(1);
+		assertThat(queue.drain(store)).isEqualTo(0);
+	}
+
+	@Test
+	public void overflowShouldBeSpilledAndStoredLater() throws Exception {
+		publishProperties.setWriteBehindSpillDirectory(spillDirectory.toString());
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		queue.enqueue(PublishUtil.createPublish(1));
+		queue.enqueue(PublishUtil.createPublish(1));
+		Publish spilled = PublishUtil.createPublish(4);
+		queue.enqueue(spilled);
+
+		assertThat(countFiles()).isEqualTo(1);
+		assertThat(meterRegistry.get("publish.queue.spilled.size").gauge().value()).isEqualTo(1);
+
+		List<Publish> stored = new ArrayList<>();
+		assertThat(queue.drain(stored::addAll)).isEqualTo(3);
+		assertThat(stored.get(2).getKeys()).hasSize(4);
+		assertThat(stored.get(2).getKeys().get(0).getKey()).isEqualTo(spilled.getKeys().get(0).getKey());
+		assertThat(countFiles()).isEqualTo(0);
+	}
+
+	@Test
+	public void shutdownShouldSpillQueuedPublishes() throws Exception {
+		publishProperties.setWriteBehindSpillDirectory(spillDirectory.toString());
+		PublishQueueService queue = new PublishQueueService(publishProperties, new ObjectMapper(), meterRegistry);
+		queue.enqueue(PublishUtil.createPublish(1));
+		queue.shutdown();
+		assertThat(countFiles()).isEqualTo(1);
+
+		PublishQueueService restarted = new PublishQueueService(publishProperties, new ObjectMapper(), new SimpleMeterRegistry());
+		assertThat(restarted.drain(batch -> { })).isEqualTo(1);
+		assertThat(countFiles()).isEqualTo(0);
+	}
+
+	private long countFiles() throws Exception {
+		try (Stream<Path> files = Files.list(spillDirectory)) {
+			return files.count();
+		}
+	}
+}
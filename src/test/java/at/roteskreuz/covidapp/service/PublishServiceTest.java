@@ -2,7 +2,9 @@ package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.model.Publish;
 import at.roteskreuz.covidapp.util.PublishUtil;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.Random;
+import static org.assertj.core.api.Assertions.assertThat;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,15 +21,27 @@ public class PublishServiceTest {
 	private PublishService publishService;
 	@MockBean
 	private  ExposureService exposureService;
+	@Autowired
+	private MeterRegistry meterRegistry;
 
 	@Test
-	public void whenPublishEachExposureShouldBeSaved() {
-		Mockito.doNothing().when(exposureService).save(Mockito.any());
+	public void whenPublishEachExposureShouldBeSaved() throws Exception {
+		Mockito.doNothing().when(exposureService).saveAll(Mockito.any());
 		Random random = new Random();
 		int exposuresCount = random.nextInt(10);
 		Publish publish = PublishUtil.createPublish(exposuresCount);		
 		publishService.publish(publish);
-		Mockito.verify(exposureService, Mockito.times(exposuresCount)).save(Mockito.any());
+		Mockito.verify(exposureService, Mockito.times(1)).saveAll(Mockito.argThat(exposures -> exposures.size() == exposuresCount));
+		Mockito.verify(exposureService, Mockito.never()).save(Mockito.any());
+	}
+
+	@Test
+	public void publishedKeysShouldBeCounted() throws Exception {
+		double keys = meterRegistry.counter("publish.keys").count();
+		double requests = meterRegistry.counter("publish.requests").count();
+		publishService.publish(PublishUtil.createPublish(5));
+		assertThat(meterRegistry.counter("publish.keys").count()).isEqualTo(keys + 5);
+		assertThat(meterRegistry.counter("publish.requests").count()).isEqualTo(requests + 1);
 	}
 	
 }
@@ -1,6 +1,7 @@
 package at.roteskreuz.covidapp.service;
 
 import at.roteskreuz.covidapp.model.ApiResponse;
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,13 +20,17 @@ public class SchedulerServiceTest {
 	private  ExportService exportService;
 	@MockBean
 	private ClientConfigurationService clientConfigService;
+	@MockBean
+	private PublishService publishService;
+	@MockBean
+	private AuthorizedAppService authorizedAppService;
 	
 	
 	@Test
-	public void whenFlushCacheScheduledItWillFlushTheCache() {
-		Mockito.doNothing().when(clientConfigService).flushCache();
-		schedulerService.flushCache();
-		Mockito.verify(clientConfigService, Mockito.times(1)).flushCache();
+	public void whenRefreshScheduledItWillRefreshTheConfiguration() {
+		Mockito.when(clientConfigService.refresh()).thenReturn(Boolean.TRUE);
+		schedulerService.refreshClientConfiguration();
+		Mockito.verify(clientConfigService, Mockito.atLeastOnce()).refresh();
 
 	}
 
@@ -37,5 +42,34 @@ public class SchedulerServiceTest {
 
 	}
 
+	@Test
+	public void whenWindowExportScheduledItWillExportTheWindows() throws Exception {
+		Mockito.when(exportService.exportWindows()).thenReturn(ApiResponse.ok());
+		schedulerService.exportWindows();
+		Mockito.verify(exportService, Mockito.times(1)).exportWindows();
+		Mockito.verify(exportService, Mockito.never()).export();
+	}
+
+	@Test
+	public void whenRefreshScheduledItWillReloadTheAuthorizedApps() {
+		schedulerService.refreshAuthorizedApps();
+		Mockito.verify(authorizedAppService, Mockito.atLeastOnce()).refresh();
+	}
+
+	@Test
+	public void whenDrainScheduledItWillStoreTheQueuedPublishes() {
+		Mockito.when(publishService.drainQueue()).thenReturn(3);
+		schedulerService.drainPublishQueue();
+		Mockito.verify(publishService, Mockito.atLeastOnce()).drainQueue();
+	}
+
+	@Test
+	public void failedDrainShouldNotStopTheScheduler() {
+		Mockito.when(publishService.drainQueue()).thenThrow(new IllegalStateException("database is down")).thenReturn(1);
+		Assertions.assertThatCode(() -> schedulerService.drainPublishQueue()).doesNotThrowAnyException();
+		schedulerService.drainPublishQueue();
+		Mockito.verify(publishService, Mockito.times(2)).drainQueue();
+	}
+
 	
 }
@@ -0,0 +1,114 @@
+package at.roteskreuz.covidapp.service;
+
+import at.roteskreuz.covidapp.config.ResilienceConfig;
+import at.roteskreuz.covidapp.exception.TanServiceUnavailableException;
+import at.roteskreuz.covidapp.properties.TanProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/*
+ * Tests the circuit breaker of the TAN service against a local stub server
+ */
+public class TanServiceResilienceTest {
+
+	private static final String UUID = "1d63a871-d530-4b72-93e5-7b4a2ce4bd2f";
+	private static final String TYPE = "red-warning";
+
+	private HttpServer server;
+	private final AtomicInteger responseStatus = new AtomicInteger(200);
+	private final AtomicInteger calls = new AtomicInteger();
+	private MeterRegistry meterRegistry;
+	private CircuitBreaker circuitBreaker;
+	private TanService service;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/tan", exchange -> {
+			calls.incrementAndGet();
+			exchange.getRequestBody().close();
+			exchange.sendResponseHeaders(responseStatus.get(), -1);
+			exchange.close();
+		});
+		server.start();
+
+		TanProperties tanProperties = new TanProperties();
+		tanProperties.setCircuitBreakerSlidingWindowSize(4);
+		tanProperties.setCircuitBreakerMinimumNumberOfCalls(2);
+		tanProperties.setCircuitBreakerPermittedNumberOfCallsInHalfOpenState(1);
+		tanProperties.setCircuitBreakerWaitDurationInOpenState(Duration.ofMillis(200));
+		ResilienceConfig resilienceConfig = new ResilienceConfig(tanProperties);
+		meterRegistry = new SimpleMeterRegistry();
+		circuitBreaker = resilienceConfig.tanCircuitBreaker(meterRegistry);
+		service = new TanService(new RestTemplate(), WebClient.create(), new Sha256Service(), tanProperties, circuitBreaker, resilienceConfig.tanBulkhead(meterRegistry), meterRegistry);
+		ReflectionTestUtils.setField(service, "personalDataServiceUrl", String.format("http://localhost:%d/tan", server.getAddress().getPort()));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void failingTanServiceShouldOpenTheCircuit() throws Exception {
+		responseStatus.set(500);
+		assertThat(service.validate(UUID, "100001", TYPE)).isFalse();
+		assertThat(service.validate(UUID, "100002", TYPE)).isFalse();
+
+		assertThatThrownBy(() -> service.validate(UUID, "100003", TYPE)).isInstanceOf(TanServiceUnavailableException.class);
+		assertThat(calls.get()).isEqualTo(2);
+		assertThat(meterRegistry.get("resilience4j.circuitbreaker.state").tag("state", "open").gauge().value()).isEqualTo(1);
+		assertThat(meterRegistry.get("tan.validation").tags("mode", "sync", "outcome", "error").timer().count()).isEqualTo(2);
+		assertThat(meterRegistry.get("tan.validation").tags("mode", "sync", "outcome", "rejected").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void successfulProbeShouldCloseTheCircuit() throws Exception {
+		responseStatus.set(500);
+		service.validate(UUID, "100001", TYPE);
+		service.validate(UUID, "100002", TYPE);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+		responseStatus.set(200);
+		Thread.sleep(400);
+		assertThat(service.validate(UUID, "100003", TYPE)).isTrue();
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void rejectedTansShouldNotOpenTheCircuit() throws Exception {
+		responseStatus.set(404);
+		for (int i = 0; i < 5; i++) {
+			assertThat(service.validate(UUID, "10000" + i, TYPE)).isFalse();
+		}
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+		assertThat(calls.get()).isEqualTo(5);
+	}
+
+	@Test
+	public void asyncValidationShouldFailFastWhenTheCircuitIsOpen() throws Exception {
+		responseStatus.set(500);
+		assertThat(service.validateAsync(UUID, "100001", TYPE).get()).isFalse();
+		assertThat(service.validateAsync(UUID, "100002", TYPE).get()).isFalse();
+
+		assertThatThrownBy(() -> service.validateAsync(UUID, "100003", TYPE).get())
+				.isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(TanServiceUnavailableException.class);
+		assertThat(calls.get()).isEqualTo(2);
+	}
+
+}
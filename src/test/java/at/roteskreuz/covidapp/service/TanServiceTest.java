@@ -1,6 +1,7 @@
 package at.roteskreuz.covidapp.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,8 +28,13 @@ public class TanServiceTest {
 	@Value("${external.personal.data.storage.url:}")
 	private String personalDataServiceUrl;	
 
+	@BeforeEach
+	public void setUp() {
+		service.clearCache();
+	}
+
 	@Test
-	public void whenCalledWithValidTanItShouldReturnTrue() {
+	public void whenCalledWithValidTanItShouldReturnTrue() throws Exception {
 		String tan = "975310";
 		String uuid= "1d63a871-d530-4b72-93e5-7b4a2ce4bd2f";
 		String type= "red-warning";
@@ -39,7 +45,7 @@ public class TanServiceTest {
 	}
 	
 	@Test
-	public void whenCalledWithInvalidTanItShouldReturnFalse() {
+	public void whenCalledWithInvalidTanItShouldReturnFalse() throws Exception {
 		String tan = "975";
 		String uuid= "1d63a871-d530-4b72-93e5-7b4a2ce4bd2f";
 		String type= "red-warning";		
@@ -47,7 +53,7 @@ public class TanServiceTest {
 	}
 
 	@Test
-	public void whenTanServiceIsNotAvailableItShouldReturnTrue() {
+	public void whenTanServiceIsNotAvailableItShouldReturnTrue() throws Exception {
 		String tan = "975310";
 		String uuid= "1d63a871-d530-4b72-93e5-7b4a2ce4bd2f";
 		String type= "red-warning";
@@ -57,4 +63,51 @@ public class TanServiceTest {
 		assertThat(service.validate(uuid, tan, type)).isEqualTo(false);
 	}	
 
+	@Test
+	public void validTanShouldBeCached() throws Exception {
+		String tan = "975310";
+		String uuid= "1d63a871-d530-4b72-93e5-7b4a2ce4bd2f";
+		String type= "red-warning";
+		
+		ResponseEntity<String> response200 = new ResponseEntity("OK",HttpStatus.OK);		
+		Mockito.when(restTemplate.postForEntity(Mockito.eq(personalDataServiceUrl), Mockito.any(HttpEntity.class), Mockito.eq(String.class))).thenReturn(response200);
+		assertThat(service.validate(uuid, tan, type)).isEqualTo(true);
+		assertThat(service.validate(uuid, tan, type)).isEqualTo(true);
+		Mockito.verify(restTemplate, Mockito.times(1)).postForEntity(Mockito.eq(personalDataServiceUrl), Mockito.any(HttpEntity.class), Mockito.eq(String.class));
+
+		//other types are validated separately
+		assertThat(service.validate(uuid, tan, "yellow-warning")).isEqualTo(true);
+		Mockito.verify(restTemplate, Mockito.times(2)).postForEntity(Mockito.eq(personalDataServiceUrl), Mockito.any(HttpEntity.class), Mockito.eq(String.class));
+	}
+
+	@Test
+	public void invalidTanShouldNotBeCached() throws Exception {
+		String tan = "975310";
+		String uuid= "1d63a871-d530-4b72-93e5-7b4a2ce4bd2f";
+		String type= "red-warning";
+		
+		ResponseEntity<String> response404 = new ResponseEntity("OK",HttpStatus.NOT_FOUND);		
+		Mockito.when(restTemplate.postForEntity(Mockito.eq(personalDataServiceUrl), Mockito.any(HttpEntity.class), Mockito.eq(String.class))).thenReturn(response404);
+		assertThat(service.validate(uuid, tan, type)).isEqualTo(false);
+		assertThat(service.validate(uuid, tan, type)).isEqualTo(false);
+		Mockito.verify(restTemplate, Mockito.times(2)).postForEntity(Mockito.eq(personalDataServiceUrl), Mockito.any(HttpEntity.class), Mockito.eq(String.class));
+	}
+
+	@Test
+	public void asyncValidationShouldRejectMalformedTan() throws Exception {
+		assertThat(service.validateAsync("1d63a871-d530-4b72-93e5-7b4a2ce4bd2f", "975", "red-warning").get()).isEqualTo(false);
+	}
+
+	@Test
+	public void asyncValidationShouldUseCachedTan() throws Exception {
+		String tan = "975310";
+		String uuid= "1d63a871-d530-4b72-93e5-7b4a2ce4bd2f";
+		String type= "red-warning";
+
+		ResponseEntity<String> response200 = new ResponseEntity("OK",HttpStatus.OK);
+		Mockito.when(restTemplate.postForEntity(Mockito.eq(personalDataServiceUrl), Mockito.any(HttpEntity.class), Mockito.eq(String.class))).thenReturn(response200);
+		assertThat(service.validate(uuid, tan, type)).isEqualTo(true);
+		assertThat(service.validateAsync(uuid, tan, type).get()).isEqualTo(true);
+	}
+
 }
@@ -0,0 +1,108 @@
+package at.roteskreuz.covidapp.sign;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Tests the key caching of the signers
+ */
+public class AbstractSignerTest {
+
+	private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+	private static final String KEY_TYPE = "EC";
+
+	private KeyPair keyPair;
+
+	@BeforeEach
+	public void setUp() throws GeneralSecurityException {
+		keyPair = createKeyPair();
+	}
+
+	@Test
+	public void sameKeyShouldBeParsedOnlyOnce() throws Exception {
+		CountingSigner signer = new CountingSigner(keyPair.getPrivate().getEncoded());
+		byte[] data = "alma a fa alatt".getBytes();
+		for (int i = 0; i < 3; i++) {
+			assertThat(verify(keyPair, data, signer.sign(data))).isTrue();
+		}
+		assertThat(signer.parsed).isEqualTo(1);
+	}
+
+	@Test
+	public void changedKeyShouldBeParsedAgain() throws Exception {
+		CountingSigner signer = new CountingSigner(keyPair.getPrivate().getEncoded());
+		byte[] data = "alma a fa alatt".getBytes();
+		signer.sign(data);
+
+		KeyPair newKeyPair = createKeyPair();
+		signer.encodedKey = newKeyPair.getPrivate().getEncoded();
+		assertThat(verify(newKeyPair, data, signer.sign(data))).isTrue();
+		assertThat(signer.parsed).isEqualTo(2);
+	}
+
+	@Test
+	public void signatureShouldBeReusableFromSeveralThreads() throws Exception {
+		CountingSigner signer = new CountingSigner(keyPair.getPrivate().getEncoded());
+		byte[] data = "alma a fa alatt".getBytes();
+		boolean[] results = new boolean[4];
+		Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			int idx = i;
+			threads[i] = new Thread(() -> {
+				try {
+					results[idx] = verify(keyPair, data, signer.sign(data)) && verify(keyPair, data, signer.sign(data));
+				} catch (Exception e) {
+					results[idx] = false;
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(results).containsOnly(true);
+		assertThat(signer.parsed).isEqualTo(1);
+	}
+
+	private static KeyPair createKeyPair() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_TYPE);
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		return generator.generateKeyPair();
+	}
+
+	private static boolean verify(KeyPair keyPair, byte[] data, byte[] signature) throws GeneralSecurityException {
+		Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+		verifier.initVerify(keyPair.getPublic());
+		verifier.update(data);
+		return verifier.verify(signature);
+	}
+
+	private static class CountingSigner extends AbstractSigner {
+
+		private volatile byte[] encodedKey;
+		private volatile int parsed;
+
+		CountingSigner(byte[] encodedKey) {
+			this.encodedKey = encodedKey;
+		}
+
+		@Override
+		public byte[] sign(byte[] data) throws GeneralSecurityException, IOException {
+			return signature(data, encodedKey, SIGNATURE_ALGORITHM, KEY_TYPE);
+		}
+
+		@Override
+		protected PrivateKey getPrivateKey(byte[] encodedKey, String keyType) throws IOException, GeneralSecurityException {
+			parsed++;
+			return super.getPrivateKey(encodedKey, keyType);
+		}
+	}
+}
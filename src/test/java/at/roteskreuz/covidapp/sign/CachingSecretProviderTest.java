@@ -0,0 +1,140 @@
+package at.roteskreuz.covidapp.sign;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Tests the secret cache against a local stand-in of the secret source
+ */
+public class CachingSecretProviderTest {
+
+	private static final Duration TTL = Duration.ofMinutes(15);
+	private static final Duration REFRESH_AHEAD = Duration.ofMinutes(1);
+
+	private MutableClock clock;
+	private StandInSecretSource source;
+	private CachingSecretProvider provider;
+
+	@BeforeEach
+	public void setUp() {
+		clock = new MutableClock(Instant.parse("2020-06-01T12:00:00Z"));
+		source = new StandInSecretSource();
+		provider = new CachingSecretProvider(source, TTL, REFRESH_AHEAD, Runnable::run, clock);
+	}
+
+	@Test
+	public void secretShouldBeFetchedOnceWithinTtl() {
+		assertThat(provider.getSecret()).isEqualTo("secret-1");
+		clock.advance(Duration.ofMinutes(5));
+		assertThat(provider.getSecret()).isEqualTo("secret-1");
+		assertThat(source.calls.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void secretShouldBeRefreshedAheadOfExpiration() {
+		provider.getSecret();
+		clock.advance(TTL.minus(REFRESH_AHEAD));
+		//the refresh runs in the background, the caller is not blocked by it
+		provider.getSecret();
+		assertThat(source.calls.get()).isEqualTo(2);
+		assertThat(provider.getSecret()).isEqualTo("secret-2");
+	}
+
+	@Test
+	public void lastKnownSecretShouldBeUsedWhenSourceFails() {
+		provider.getSecret();
+		source.failing = true;
+		clock.advance(TTL.plusMinutes(1));
+		assertThat(provider.getSecret()).isEqualTo("secret-1");
+	}
+
+	@Test
+	public void failedRefreshShouldBeRetriedAfterTheRefreshAheadPeriod() {
+		provider.getSecret();
+		source.failing = true;
+		clock.advance(TTL.plusMinutes(1));
+		assertThat(provider.getSecret()).isEqualTo("secret-1");
+		assertThat(source.attempts.get()).isEqualTo(2);
+		//the source is not called again by every caller during the outage
+		assertThat(provider.getSecret()).isEqualTo("secret-1");
+		assertThat(source.attempts.get()).isEqualTo(2);
+
+		source.failing = false;
+		clock.advance(REFRESH_AHEAD);
+		provider.getSecret();
+		assertThat(source.attempts.get()).isEqualTo(3);
+		assertThat(provider.getSecret()).isEqualTo("secret-2");
+	}
+
+	@Test
+	public void expiredSecretShouldNotBlockTheCaller() {
+		List<Runnable> refreshes = new ArrayList<>();
+		provider = new CachingSecretProvider(source, TTL, REFRESH_AHEAD, refreshes::add, clock);
+		provider.getSecret();
+		clock.advance(TTL.plusMinutes(1));
+		assertThat(provider.getSecret()).isEqualTo("secret-1");
+		assertThat(refreshes).hasSize(1);
+		refreshes.get(0).run();
+		assertThat(provider.getSecret()).isEqualTo("secret-2");
+	}
+
+	@Test
+	public void firstFetchFailureShouldBeReported() {
+		source.failing = true;
+		Assertions.assertThatThrownBy(() -> provider.getSecret()).isInstanceOf(IllegalStateException.class);
+	}
+
+	private static class StandInSecretSource implements SecretProvider {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger attempts = new AtomicInteger();
+		private volatile boolean failing;
+
+		@Override
+		public String getSecret() {
+			attempts.incrementAndGet();
+			if (failing) {
+				throw new IllegalStateException("Secret source is not available");
+			}
+			return "secret-" + calls.incrementAndGet();
+		}
+	}
+
+	private static class MutableClock extends Clock {
+
+		private Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		void advance(Duration duration) {
+			instant = instant.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+}